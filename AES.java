@@ -1,160 +1,448 @@
 // AES.java
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class AES {
-    private static final int Nb = 4;
-    private int Nk;              // key length in words
-    private int Nr;              // number of rounds
-    private int[][][] roundKey;  // roundKey[round][row][col]
-    private boolean debug = false;
+    /** Block cipher core: T-tables (fastest) or bitsliced (constant-time, no data-indexed tables). */
+    public enum Engine { TABLE, BITSLICED }
 
-    private static final HashMap<Integer,Integer> RC = new HashMap<>();
-    static {
-        RC.put(1, 0x01);  RC.put(2, 0x02);  RC.put(3, 0x04);  RC.put(4, 0x08);
-        RC.put(5, 0x10);  RC.put(6, 0x20);  RC.put(7, 0x40);  RC.put(8, 0x80);
-        RC.put(9, 0x1B);  RC.put(10,0x36);
-    }
+    private static final int Nb = 4;
+    static final int PARALLEL_THRESHOLD = 64 * 1024;  // below this CTR/CBC-decrypt stay on the caller's thread
+    static final int PARALLEL_CHUNK = 16 * 1024;      // bytes per fork-join leaf (multiple of 16)
+    private final KeySchedule schedule;
+    private final int Nr;        // number of rounds
+    private final int[] ek;      // flat encryption round keys, one column word each
+    private final int[] dk;      // flat equivalent-inverse-cipher round keys
+    private final AESTrace trace;  // step-by-step trace sink, AESTrace.NONE for none
+    private final boolean traced;  // trace != NONE: run blocks through cipherSteps
+    private final BitslicedAES bitsliced;  // non-null for Engine.BITSLICED (and no trace)
 
     public AES(String key) {
         this(key, false);
     }
+    /** With debug, every step of every block is traced to System.out. */
     public AES(String key, boolean debug) {
-        this.debug = debug;
-        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-        this.Nk = keyBytes.length / 4;
-        this.Nr = Nk + 6;
-        this.roundKey = new int[Nr+1][4][Nb];
-        keyExpansion(keyBytes);
+        this(key, debug ? AESTrace.stdout() : AESTrace.NONE);
+    }
+    public AES(String key, AESTrace trace) {
+        this(KeySchedule.expand(key.getBytes(StandardCharsets.UTF_8)), trace);
+    }
+    public AES(byte[] key) {
+        this(KeySchedule.expand(key), false);
+    }
+    /** Build on an already expanded (e.g. cached) key schedule. */
+    public AES(KeySchedule schedule) {
+        this(schedule, false);
+    }
+    public AES(KeySchedule schedule, boolean debug) {
+        this(schedule, debug ? AESTrace.stdout() : AESTrace.NONE);
+    }
+    /** Trace every step of every block to trace (single-threaded, T-table path bypassed). */
+    public AES(KeySchedule schedule, AESTrace trace) {
+        this(schedule, trace, Engine.TABLE);
+    }
+    public AES(byte[] key, Engine engine) {
+        this(KeySchedule.expand(key), AESTrace.NONE, engine);
+    }
+    public AES(KeySchedule schedule, Engine engine) {
+        this(schedule, AESTrace.NONE, engine);
+    }
+    private AES(KeySchedule schedule, AESTrace trace, Engine engine) {
+        this.schedule = schedule;
+        this.Nr = schedule.Nr;
+        this.ek = schedule.ek;
+        this.dk = schedule.dk;
+        this.trace = trace;
+        this.traced = trace != AESTrace.NONE;
+        this.bitsliced = engine == Engine.BITSLICED && !traced ? new BitslicedAES(schedule) : null;
+    }
+
+    public Engine getEngine() {
+        return bitsliced != null ? Engine.BITSLICED : Engine.TABLE;
+    }
+
+    public KeySchedule getSchedule() {
+        return schedule;
     }
 
     public String encrypt(String plaintext, boolean cbcMode) {
-        int blocks = (plaintext.getBytes(StandardCharsets.UTF_8).length + 15) / 16;
-        byte[] iv = new byte[16];  // zero IV
-        StringBuilder out = new StringBuilder();
-        for (int b = 0; b < blocks; b++) {
-            // build state matrix
-            byte[] block = new byte[16];
-            byte[] ptBytes = plaintext.getBytes(StandardCharsets.UTF_8);
-            for (int i = 0; i < 16; i++) {
-                block[i] = (b*16 + i < ptBytes.length) ? ptBytes[b*16 + i] : 0;
-                if (cbcMode) block[i] ^= iv[i];
+        return bytesToHex(encrypt(plaintext.getBytes(StandardCharsets.UTF_8), cbcMode));
+    }
+
+    public String decrypt(String ciphertext, boolean cbcMode) {
+        return new String(decrypt(hexToBytes(ciphertext), cbcMode), StandardCharsets.UTF_8);
+    }
+
+    /** Encrypt a byte array (zero-padded to a whole block) with a zero IV. */
+    public byte[] encrypt(byte[] plaintext, boolean cbcMode) {
+        byte[] out = Arrays.copyOf(plaintext, (plaintext.length + 15) / 16 * 16);
+        if (cbcMode) encryptCBC(out, 0, out, 0, out.length, new byte[16]);
+        else         encryptECB(out, 0, out, 0, out.length);
+        return out;
+    }
+
+    /** Decrypt a byte array with a zero IV; a trailing partial block is ignored. */
+    public byte[] decrypt(byte[] ciphertext, boolean cbcMode) {
+        int len = ciphertext.length / 16 * 16;
+        byte[] out = new byte[len];
+        if (cbcMode) decryptCBC(ciphertext, 0, out, 0, len, new byte[16]);
+        else         decryptECB(ciphertext, 0, out, 0, len);
+        return out;
+    }
+
+    /** ECB-encrypt len bytes (a multiple of 16); in and out may overlap exactly. */
+    public void encryptECB(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        Metrics.count(Metrics.Counter.AES_ECB_ENCRYPT_BLOCKS, len >>> 4);
+        if (bitsliced != null) {
+            bitsliced.encryptBlocks(in, inOff, out, outOff, len >>> 4);
+            return;
+        }
+        for (int i = 0; i < len; i += 16) {
+            encryptBlock(in, inOff + i, out, outOff + i);
+        }
+    }
+
+    /** ECB-decrypt len bytes (a multiple of 16); in and out may overlap exactly. */
+    public void decryptECB(byte[] in, int inOff, byte[] out, int outOff, int len) {
+        Metrics.count(Metrics.Counter.AES_ECB_DECRYPT_BLOCKS, len >>> 4);
+        if (bitsliced != null) {
+            bitsliced.decryptBlocks(in, inOff, out, outOff, len >>> 4);
+            return;
+        }
+        for (int i = 0; i < len; i += 16) {
+            decryptBlock(in, inOff + i, out, outOff + i);
+        }
+    }
+
+    /** CBC-encrypt len bytes (a multiple of 16); iv is updated to the last ciphertext block. */
+    public void encryptCBC(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] iv) {
+        Metrics.count(Metrics.Counter.AES_CBC_ENCRYPT_BLOCKS, len >>> 4);
+        byte[] prev = iv;
+        int prevOff = 0;
+        for (int i = 0; i < len; i += 16) {
+            for (int j = 0; j < 16; j++) {
+                out[outOff + i + j] = (byte)(in[inOff + i + j] ^ prev[prevOff + j]);
             }
-            int[][] state = new int[4][Nb];
-            for (int i=0;i<16;i++) state[i%4][i/4] = block[i] & 0xFF;
+            encryptBlock(out, outOff + i, out, outOff + i);
+            prev = out;
+            prevOff = outOff + i;
+        }
+        if (len > 0) System.arraycopy(prev, prevOff, iv, 0, 16);
+    }
 
-            cipher(state, true);
+    /**
+     * CBC-decrypt len bytes (a multiple of 16); iv is updated to the last ciphertext block.
+     * Each plaintext block depends only on its own and the previous ciphertext block, so inputs
+     * of at least PARALLEL_THRESHOLD bytes are decrypted in chunks on the common ForkJoinPool
+     * when in and out are separate arrays.
+     */
+    public void decryptCBC(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] iv) {
+        if (traced || len < PARALLEL_THRESHOLD || in == out) {
+            decryptCBCSequential(in, inOff, out, outOff, len, iv);
+            return;
+        }
+        Metrics.count(Metrics.Counter.AES_CBC_DECRYPT_BLOCKS, len >>> 4);
+        ForkJoinPool.commonPool().invoke(new CbcDecryptTask(in, inOff, out, outOff, len, iv.clone()));
+        System.arraycopy(in, inOff + len - 16, iv, 0, 16);
+    }
 
-            byte[] ct = new byte[16];
-            for (int i=0;i<16;i++) {
-                ct[i] = (byte) state[i%4][i/4];
+    /** Single-threaded CBC decryption; safe for in-place use. */
+    public void decryptCBCSequential(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] iv) {
+        Metrics.count(Metrics.Counter.AES_CBC_DECRYPT_BLOCKS, len >>> 4);
+        if (bitsliced != null) {
+            // decrypt BLOCKS at a time; the ciphertext copy keeps in-place use safe
+            byte[] cts = new byte[16 * BitslicedAES.BLOCKS];
+            for (int i = 0; i < len; i += cts.length) {
+                int n = Math.min(cts.length, len - i);
+                System.arraycopy(in, inOff + i, cts, 0, n);
+                bitsliced.decryptBlocks(cts, 0, out, outOff + i, n >>> 4);
+                for (int j = 0; j < n; j++) {
+                    out[outOff + i + j] ^= j < 16 ? iv[j] : cts[j - 16];
+                }
+                System.arraycopy(cts, n - 16, iv, 0, 16);
+            }
+            return;
+        }
+        byte[] ct = new byte[16];
+        for (int i = 0; i < len; i += 16) {
+            System.arraycopy(in, inOff + i, ct, 0, 16);
+            decryptBlock(in, inOff + i, out, outOff + i);
+            for (int j = 0; j < 16; j++) {
+                out[outOff + i + j] ^= iv[j];
             }
-            iv = ct;  // CBC chaining
-            out.append(bytesToHex(ct));
+            System.arraycopy(ct, 0, iv, 0, 16);
         }
-        return out.toString();
     }
 
-    public String decrypt(String ciphertext, boolean cbcMode) {
-        int blocks = ciphertext.length()/32;
-        byte[] prev = new byte[16];
-        StringBuilder out = new StringBuilder();
-        for (int b=0; b<blocks; b++) {
-            byte[] ct = hexToBytes(ciphertext.substring(b*32, b*32+32));
-            int[][] state = new int[4][Nb];
-            for (int i=0;i<16;i++) state[i%4][i/4] = ct[i]&0xFF;
-
-            cipher(state, false);
-
-            byte[] pt = new byte[16];
-            for (int i=0;i<16;i++) {
-                byte v = (byte) state[i%4][i/4];
-                pt[i] = cbcMode ? (byte)(v ^ prev[i]) : v;
+    /** CTR-mode transform (encrypt and decrypt are the same) with an 8-byte nonce and starting block counter. */
+    public byte[] ctr(byte[] data, byte[] nonce, long counter) {
+        byte[] out = new byte[data.length];
+        ctr(data, 0, out, 0, data.length, counterBlock(nonce, counter));
+        return out;
+    }
+
+    /** Build the initial counter block nonce || counter (64-bit big-endian). */
+    public static byte[] counterBlock(byte[] nonce, long counter) {
+        if (nonce.length != 8) throw new IllegalArgumentException("CTR nonce must be 8 bytes");
+        byte[] cb = new byte[16];
+        System.arraycopy(nonce, 0, cb, 0, 8);
+        for (int i = 0; i < 8; i++) cb[15-i] = (byte)(counter >>> (8*i));
+        return cb;
+    }
+
+    /**
+     * CTR-transform len bytes; counterBlock is the 16-byte initial counter, incremented as a
+     * 128-bit big-endian integer per block. Inputs of at least PARALLEL_THRESHOLD bytes are
+     * split into chunks whose keystreams are generated on the common ForkJoinPool.
+     */
+    public void ctr(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] counterBlock) {
+        Metrics.count(Metrics.Counter.AES_CTR_BLOCKS, (len + 15) >>> 4);
+        if (traced || len < PARALLEL_THRESHOLD) {
+            ctrRange(in, inOff, out, outOff, len, counterBlock, 0);
+        } else {
+            ForkJoinPool.commonPool().invoke(new CtrTask(in, inOff, out, outOff, len, counterBlock, 0));
+        }
+    }
+
+    /** Single-threaded CTR reference; same output as ctr(). */
+    public void ctrSequential(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] counterBlock) {
+        Metrics.count(Metrics.Counter.AES_CTR_BLOCKS, (len + 15) >>> 4);
+        ctrRange(in, inOff, out, outOff, len, counterBlock, 0);
+    }
+
+    /** CTR over one range whose first block uses counter (counterBlock + firstBlock). */
+    private void ctrRange(byte[] in, int inOff, byte[] out, int outOff, int len,
+                          byte[] counterBlock, long firstBlock) {
+        byte[] cb = Arrays.copyOf(counterBlock, 16);
+        addCounter(cb, firstBlock);
+        if (bitsliced != null) {
+            // BLOCKS counter blocks per bitsliced pass
+            byte[] cbs = new byte[16 * BitslicedAES.BLOCKS], ks = new byte[cbs.length];
+            for (int i = 0; i < len; i += cbs.length) {
+                int n = Math.min(cbs.length, len - i), blocks = (n + 15) >>> 4;
+                for (int b = 0; b < blocks; b++) {
+                    System.arraycopy(cb, 0, cbs, 16 * b, 16);
+                    addCounter(cb, 1);
+                }
+                bitsliced.encryptBlocks(cbs, 0, ks, 0, blocks);
+                for (int j = 0; j < n; j++) {
+                    out[outOff + i + j] = (byte)(in[inOff + i + j] ^ ks[j]);
+                }
             }
-            prev = ct;
-            out.append(new String(pt, StandardCharsets.UTF_8));
+            return;
+        }
+        byte[] ks = new byte[16];
+        for (int i = 0; i < len; i += 16) {
+            encryptBlock(cb, 0, ks, 0);
+            int n = Math.min(16, len - i);
+            for (int j = 0; j < n; j++) {
+                out[outOff + i + j] = (byte)(in[inOff + i + j] ^ ks[j]);
+            }
+            addCounter(cb, 1);
         }
-        return out.toString();
+    }
+
+    /** Add n to a 16-byte big-endian counter block, wrapping at 2^128. */
+    private static void addCounter(byte[] cb, long n) {
+        int carry = 0;
+        for (int i = 15; i >= 0; i--) {
+            int sum = (cb[i]&0xFF) + (int)(n & 0xFF) + carry;
+            cb[i] = (byte) sum;
+            carry = sum >>> 8;
+            n >>>= 8;
+            if (n == 0 && carry == 0) break;
+        }
+    }
+
+    /** Fork-join task that splits a CTR range into block-aligned chunks. */
+    private class CtrTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;   // never serialized
+
+        private final byte[] in, out, counterBlock;
+        private final int inOff, outOff, len;
+        private final long firstBlock;
+
+        CtrTask(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] counterBlock, long firstBlock) {
+            this.in = in; this.inOff = inOff;
+            this.out = out; this.outOff = outOff;
+            this.len = len;
+            this.counterBlock = counterBlock;
+            this.firstBlock = firstBlock;
+        }
+
+        @Override
+        protected void compute() {
+            if (len <= PARALLEL_CHUNK) {
+                ctrRange(in, inOff, out, outOff, len, counterBlock, firstBlock);
+                return;
+            }
+            int half = (len / 2 + 15) & ~15;  // split on a block boundary
+            invokeAll(new CtrTask(in, inOff, out, outOff, half, counterBlock, firstBlock),
+                      new CtrTask(in, inOff + half, out, outOff + half, len - half,
+                                  counterBlock, firstBlock + half / 16));
+        }
+    }
+
+    /** Fork-join task that CBC-decrypts a range; in and out must not overlap. */
+    private class CbcDecryptTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;   // never serialized
+
+        private final byte[] in, out, iv;
+        private final int inOff, outOff, len;
+
+        /** iv precedes the first block, or null when the previous ciphertext block is in[inOff-16]. */
+        CbcDecryptTask(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] iv) {
+            this.in = in; this.inOff = inOff;
+            this.out = out; this.outOff = outOff;
+            this.len = len;
+            this.iv = iv;
+        }
+
+        @Override
+        protected void compute() {
+            if (len <= PARALLEL_CHUNK) {
+                if (bitsliced != null) bitsliced.decryptBlocks(in, inOff, out, outOff, len >>> 4);
+                for (int i = 0; i < len; i += 16) {
+                    if (bitsliced == null) decryptBlock(in, inOff + i, out, outOff + i);
+                    byte[] prev = (iv != null && i == 0) ? iv : in;
+                    int prevOff = (prev == iv) ? 0 : inOff + i - 16;
+                    for (int j = 0; j < 16; j++) {
+                        out[outOff + i + j] ^= prev[prevOff + j];
+                    }
+                }
+                return;
+            }
+            int half = (len / 2 + 15) & ~15;  // split on a block boundary
+            invokeAll(new CbcDecryptTask(in, inOff, out, outOff, half, iv),
+                      new CbcDecryptTask(in, inOff + half, out, outOff + half, len - half, null));
+        }
+    }
+
+    /** Encrypt one 16-byte block from in[inOff] into out[outOff]; in and out may be the same. */
+    public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        if (traced) {
+            tracedBlock(in, inOff, out, outOff, true);
+            return;
+        }
+        if (bitsliced != null) {
+            bitsliced.encryptBlocks(in, inOff, out, outOff, 1);
+            return;
+        }
+        final int[] T0 = TTables.Te0, T1 = TTables.Te1, T2 = TTables.Te2, T3 = TTables.Te3;
+        final int[] rk = ek;
+        int s0 = getWord(in, inOff)    ^ rk[0];
+        int s1 = getWord(in, inOff+4)  ^ rk[1];
+        int s2 = getWord(in, inOff+8)  ^ rk[2];
+        int s3 = getWord(in, inOff+12) ^ rk[3];
+        int k = 4;
+        for (int round = 1; round < Nr; round++, k += 4) {
+            int t0 = T0[s0>>>24] ^ T1[(s1>>>16)&0xFF] ^ T2[(s2>>>8)&0xFF] ^ T3[s3&0xFF] ^ rk[k];
+            int t1 = T0[s1>>>24] ^ T1[(s2>>>16)&0xFF] ^ T2[(s3>>>8)&0xFF] ^ T3[s0&0xFF] ^ rk[k+1];
+            int t2 = T0[s2>>>24] ^ T1[(s3>>>16)&0xFF] ^ T2[(s0>>>8)&0xFF] ^ T3[s1&0xFF] ^ rk[k+2];
+            int t3 = T0[s3>>>24] ^ T1[(s0>>>16)&0xFF] ^ T2[(s1>>>8)&0xFF] ^ T3[s2&0xFF] ^ rk[k+3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+        }
+        final int[] S = TTables.S;
+        putWord(out, outOff,    ((S[s0>>>24]<<24) | (S[(s1>>>16)&0xFF]<<16) | (S[(s2>>>8)&0xFF]<<8) | S[s3&0xFF]) ^ rk[k]);
+        putWord(out, outOff+4,  ((S[s1>>>24]<<24) | (S[(s2>>>16)&0xFF]<<16) | (S[(s3>>>8)&0xFF]<<8) | S[s0&0xFF]) ^ rk[k+1]);
+        putWord(out, outOff+8,  ((S[s2>>>24]<<24) | (S[(s3>>>16)&0xFF]<<16) | (S[(s0>>>8)&0xFF]<<8) | S[s1&0xFF]) ^ rk[k+2]);
+        putWord(out, outOff+12, ((S[s3>>>24]<<24) | (S[(s0>>>16)&0xFF]<<16) | (S[(s1>>>8)&0xFF]<<8) | S[s2&0xFF]) ^ rk[k+3]);
+    }
+
+    /** Decrypt one 16-byte block from in[inOff] into out[outOff]; in and out may be the same. */
+    public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff) {
+        if (traced) {
+            tracedBlock(in, inOff, out, outOff, false);
+            return;
+        }
+        if (bitsliced != null) {
+            bitsliced.decryptBlocks(in, inOff, out, outOff, 1);
+            return;
+        }
+        final int[] T0 = TTables.Td0, T1 = TTables.Td1, T2 = TTables.Td2, T3 = TTables.Td3;
+        final int[] rk = dk;
+        int s0 = getWord(in, inOff)    ^ rk[0];
+        int s1 = getWord(in, inOff+4)  ^ rk[1];
+        int s2 = getWord(in, inOff+8)  ^ rk[2];
+        int s3 = getWord(in, inOff+12) ^ rk[3];
+        int k = 4;
+        for (int round = 1; round < Nr; round++, k += 4) {
+            int t0 = T0[s0>>>24] ^ T1[(s3>>>16)&0xFF] ^ T2[(s2>>>8)&0xFF] ^ T3[s1&0xFF] ^ rk[k];
+            int t1 = T0[s1>>>24] ^ T1[(s0>>>16)&0xFF] ^ T2[(s3>>>8)&0xFF] ^ T3[s2&0xFF] ^ rk[k+1];
+            int t2 = T0[s2>>>24] ^ T1[(s1>>>16)&0xFF] ^ T2[(s0>>>8)&0xFF] ^ T3[s3&0xFF] ^ rk[k+2];
+            int t3 = T0[s3>>>24] ^ T1[(s2>>>16)&0xFF] ^ T2[(s1>>>8)&0xFF] ^ T3[s0&0xFF] ^ rk[k+3];
+            s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+        }
+        final int[] S = TTables.invS;
+        putWord(out, outOff,    ((S[s0>>>24]<<24) | (S[(s3>>>16)&0xFF]<<16) | (S[(s2>>>8)&0xFF]<<8) | S[s1&0xFF]) ^ rk[k]);
+        putWord(out, outOff+4,  ((S[s1>>>24]<<24) | (S[(s0>>>16)&0xFF]<<16) | (S[(s3>>>8)&0xFF]<<8) | S[s2&0xFF]) ^ rk[k+1]);
+        putWord(out, outOff+8,  ((S[s2>>>24]<<24) | (S[(s1>>>16)&0xFF]<<16) | (S[(s0>>>8)&0xFF]<<8) | S[s3&0xFF]) ^ rk[k+2]);
+        putWord(out, outOff+12, ((S[s3>>>24]<<24) | (S[(s2>>>16)&0xFF]<<16) | (S[(s1>>>8)&0xFF]<<8) | S[s0&0xFF]) ^ rk[k+3]);
+    }
+
+    /** Traced path: run one block through the step-by-step cipher so every step is reported. */
+    private void tracedBlock(byte[] in, int inOff, byte[] out, int outOff, boolean encryptMode) {
+        int[][] state = new int[4][Nb];
+        for (int i=0;i<16;i++) state[i%4][i/4] = in[inOff + i] & 0xFF;
+        cipherSteps(state, encryptMode);
+        trace.endBlock();
+        for (int i=0;i<16;i++) out[outOff + i] = (byte) state[i%4][i/4];
     }
 
     public void cipher(int[][] state, boolean encryptMode) {
+        if (traced) {
+            cipherSteps(state, encryptMode);
+            trace.endBlock();
+            return;
+        }
+        byte[] block = new byte[16];
+        for (int i=0;i<16;i++) block[i] = (byte) state[i%4][i/4];
+        if (encryptMode) encryptBlock(block, 0, block, 0);
+        else             decryptBlock(block, 0, block, 0);
+        for (int i=0;i<16;i++) state[i%4][i/4] = block[i] & 0xFF;
+    }
+
+    /** Step-by-step cipher on the 4x4 state, reporting each step to the trace sink. */
+    private void cipherSteps(int[][] state, boolean encryptMode) {
+        trace.beginBlock(state);
         if (encryptMode) {
-            addRoundKey(state, roundKey[0]);
-            if (debug) printState("Add Round Key", state);
+            addRoundKey(state, 0);
+            trace.step("Add Round Key", state);
             for (int round = 1; round < Nr; round++) {
-                subBytes(state, true);    if (debug) printState("Sub Bytes", state);
-                shiftRows(state, true);   if (debug) printState("Shift Rows", state);
-                mixColumns(state, true);  if (debug) printState("Mix Columns", state);
-                addRoundKey(state, roundKey[round]);
-                if (debug) printState("Add Round Key", state);
+                subBytes(state, true);    trace.step("Sub Bytes", state);
+                shiftRows(state, true);   trace.step("Shift Rows", state);
+                mixColumns(state, true);  trace.step("Mix Columns", state);
+                addRoundKey(state, round);
+                trace.step("Add Round Key", state);
             }
-            subBytes(state, true);    if (debug) printState("Sub Bytes", state);
-            shiftRows(state, true);   if (debug) printState("Shift Rows", state);
-            addRoundKey(state, roundKey[Nr]);
-            if (debug) printState("Add Round Key", state);
+            subBytes(state, true);    trace.step("Sub Bytes", state);
+            shiftRows(state, true);   trace.step("Shift Rows", state);
+            addRoundKey(state, Nr);
+            trace.step("Add Round Key", state);
         } else {
-            addRoundKey(state, roundKey[Nr]);
-            if (debug) printState("Add Round Key", state);
+            addRoundKey(state, Nr);
+            trace.step("Add Round Key", state);
             shiftRows(state, false);
-            if (debug) printState("Shift Rows", state);
+            trace.step("Shift Rows", state);
             subBytes(state, false);
-            if (debug) printState("Sub Bytes", state);
+            trace.step("Sub Bytes", state);
             for (int round = Nr-1; round > 0; round--) {
-                addRoundKey(state, roundKey[round]);
-                if (debug) printState("Add Round Key", state);
+                addRoundKey(state, round);
+                trace.step("Add Round Key", state);
                 mixColumns(state, false);
-                if (debug) printState("Inv Mix Columns", state);
+                trace.step("Inv Mix Columns", state);
                 shiftRows(state, false);
-                if (debug) printState("Shift Rows", state);
+                trace.step("Shift Rows", state);
                 subBytes(state, false);
-                if (debug) printState("Sub Bytes", state);
-            }
-            addRoundKey(state, roundKey[0]);
-            if (debug) printState("Add Round Key", state);
-        }
-    }
-
-    private void keyExpansion(byte[] key) {
-        int totalWords = Nb*(Nr+1);
-        int[] w = new int[totalWords];
-        // initial key copy
-        for (int i=0; i<Nk; i++) {
-            w[i] = ((key[4*i]&0xFF)<<24) | ((key[4*i+1]&0xFF)<<16)
-                    | ((key[4*i+2]&0xFF)<<8) |  (key[4*i+3]&0xFF);
-        }
-        // expand
-        for (int i=Nk; i<totalWords; i++) {
-            int temp = w[i-1];
-            if (i % Nk == 0) {
-                temp = subWord(rotWord(temp)) ^ (RC.get(i/Nk) << 24);
-            } else if (Nk>6 && i%Nk==4) {
-                temp = subWord(temp);
-            }
-            w[i] = w[i-Nk] ^ temp;
-        }
-        // fill roundKey
-        for (int r=0; r<=Nr; r++) {
-            for (int c=0; c<Nb; c++) {
-                int word = w[r*Nb + c];
-                roundKey[r][0][c] = (word >>> 24) & 0xFF;
-                roundKey[r][1][c] = (word >>> 16) & 0xFF;
-                roundKey[r][2][c] = (word >>>  8) & 0xFF;
-                roundKey[r][3][c] =  word         & 0xFF;
+                trace.step("Sub Bytes", state);
             }
+            addRoundKey(state, 0);
+            trace.step("Add Round Key", state);
         }
     }
 
-    private int subWord(int w) {
-        return (SBox.sbox((w>>>24)&0xFF)<<24)
-                | (SBox.sbox((w>>>16)&0xFF)<<16)
-                | (SBox.sbox((w>>> 8)&0xFF)<< 8)
-                |  SBox.sbox( w       &0xFF);
-    }
-    private int rotWord(int w) {
-        return ((w<<8) | (w>>>24)) & 0xFFFFFFFF;
-    }
-
     private void subBytes(int[][] st, boolean mode) {
         for (int r=0;r<4;r++) for (int c=0;c<Nb;c++) {
             st[r][c] = mode
@@ -164,11 +452,12 @@ public class AES {
     }
     private void shiftRows(int[][] st, boolean mode) {
         for (int r=1;r<4;r++) {
-            int[] tmp = new int[4];
-            for (int c=0;c<4;c++) {
-                tmp[c] = st[r][ mode ? (c+r)%4 : (c-r+4)%4 ];
+            int[] row = st[r];
+            // rotate left by r (encrypt) or right by r (decrypt), in place
+            for (int n = mode ? r : 4-r; n > 0; n--) {
+                int t = row[0];
+                row[0] = row[1]; row[1] = row[2]; row[2] = row[3]; row[3] = t;
             }
-            st[r] = tmp;
         }
     }
     public void mixColumns(int[][] st, boolean mode) {
@@ -182,13 +471,27 @@ public class AES {
         }
     }
 
-    private void addRoundKey(int[][] st, int[][] rk) {
+    /** XOR in round key round, reporting the key to the trace sink first. */
+    private void addRoundKey(int[][] st, int round) {
+        int[][] key = new int[4][Nb];
         for (int r=0;r<4;r++) for (int c=0;c<Nb;c++) {
-            st[r][c] ^= rk[r][c];
+            key[r][c] = (ek[round*Nb + c] >>> (24-8*r)) & 0xFF;
+            st[r][c] ^= key[r][c];
         }
+        trace.roundKey(key);
     }
 
     // --- helpers ---
+    private static int getWord(byte[] b, int off) {
+        return ((b[off]&0xFF)<<24) | ((b[off+1]&0xFF)<<16)
+                | ((b[off+2]&0xFF)<<8) | (b[off+3]&0xFF);
+    }
+    private static void putWord(byte[] b, int off, int w) {
+        b[off]   = (byte)(w>>>24);
+        b[off+1] = (byte)(w>>>16);
+        b[off+2] = (byte)(w>>> 8);
+        b[off+3] = (byte) w;
+    }
     private static String bytesToHex(byte[] b) {
         char[] hex = "0123456789abcdef".toCharArray();
         char[] out = new char[b.length*2];
@@ -208,14 +511,4 @@ public class AES {
         }
         return out;
     }
-    private void printState(String step, int[][] st) {
-        System.out.println(step);
-        for (int r=0;r<4;r++) {
-            for (int c=0;c<Nb;c++) {
-                System.out.printf("%02x", st[r][c]);
-            }
-            System.out.println();
-        }
-        System.out.println();
-    }
 }
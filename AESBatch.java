@@ -0,0 +1,115 @@
+// AESBatch.java
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <h1>AESBatch</h1>
+ * <p>CBC encryption of many independent messages, each with its own key schedule and IV, into
+ * caller-supplied buffers. CBC encryption is serial within a message but the messages are
+ * independent, so batches of at least AES.PARALLEL_THRESHOLD bytes are spread over the common
+ * ForkJoinPool; each job is an AES.encryptCBC call on the chosen engine.</p>
+ */
+public final class AESBatch {
+
+    /** One message: CBC-encrypt in[inOff, inOff+len) into out at outOff, zero-padding a partial last block. */
+    public static final class Job {
+        final KeySchedule schedule;
+        final byte[] iv, in, out;
+        final int inOff, len, outOff;
+
+        public Job(KeySchedule schedule, byte[] iv, byte[] in, int inOff, int len, byte[] out, int outOff) {
+            if (iv.length != 16) throw new IllegalArgumentException("CBC IV must be 16 bytes");
+            if (inOff < 0 || len < 0 || inOff + len > in.length) throw new IndexOutOfBoundsException("input range");
+            if (outOff < 0 || outOff + paddedLength(len) > out.length) throw new IndexOutOfBoundsException("output range");
+            this.schedule = schedule;
+            this.iv = iv;
+            this.in = in;
+            this.inOff = inOff;
+            this.len = len;
+            this.out = out;
+            this.outOff = outOff;
+        }
+
+        /** Whole message in, ciphertext at the start of out. */
+        public Job(KeySchedule schedule, byte[] iv, byte[] in, byte[] out) {
+            this(schedule, iv, in, 0, in.length, out, 0);
+        }
+    }
+
+    private AESBatch() {
+    }
+
+    /** Ciphertext length for a len-byte message: rounded up to a whole block, like AES.encrypt. */
+    public static int paddedLength(int len) {
+        return (len + 15) / 16 * 16;
+    }
+
+    /**
+     * CBC-encrypt every job with the T-table engine. Each output matches AES.encryptCBC on the
+     * zero-padded message with the job's key and IV; the IVs are not modified. Jobs must not
+     * write over each other's input.
+     */
+    public static void encryptCBC(List<Job> jobs) {
+        encryptCBC(jobs, AES.Engine.TABLE);
+    }
+
+    public static void encryptCBC(Job... jobs) {
+        encryptCBC(List.of(jobs));
+    }
+
+    /** As encryptCBC(jobs), on the given engine. */
+    public static void encryptCBC(List<Job> jobs, AES.Engine engine) {
+        Job[] all = jobs.toArray(new Job[0]);
+        long bytes = 0;
+        for (Job j : all) bytes += j.len;
+        BatchTask task = new BatchTask(all, 0, all.length, engine);
+        if (bytes < AES.PARALLEL_THRESHOLD || all.length < 2) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    /** Fork-join task that encrypts jobs [from, to); leaves hold about PARALLEL_CHUNK bytes. */
+    private static final class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;   // never serialized
+
+        private final Job[] jobs;
+        private final int from, to;
+        private final AES.Engine engine;
+
+        BatchTask(Job[] jobs, int from, int to, AES.Engine engine) {
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+            this.engine = engine;
+        }
+
+        @Override
+        protected void compute() {
+            long bytes = 0;
+            for (int i = from; i < to; i++) bytes += jobs[i].len;
+            if (to - from < 2 || bytes <= AES.PARALLEL_CHUNK) {
+                for (int i = from; i < to; i++) encrypt(jobs[i], engine);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(jobs, from, mid, engine), new BatchTask(jobs, mid, to, engine));
+        }
+    }
+
+    /** Whole blocks straight from in, then the zero-padded tail from a one-block copy. */
+    private static void encrypt(Job j, AES.Engine engine) {
+        if (j.len == 0) return;
+        AES aes = new AES(j.schedule, engine);
+        byte[] iv = j.iv.clone();   // encryptCBC advances it to the last ciphertext block
+        int whole = j.len & ~15;
+        aes.encryptCBC(j.in, j.inOff, j.out, j.outOff, whole, iv);
+        if (whole < j.len) {
+            byte[] tail = Arrays.copyOf(Arrays.copyOfRange(j.in, j.inOff + whole, j.inOff + j.len), 16);
+            aes.encryptCBC(tail, 0, j.out, j.outOff + whole, 16, iv);
+        }
+    }
+}
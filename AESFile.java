@@ -0,0 +1,138 @@
+// AESFile.java
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <h1>AESFile</h1>
+ * <p>File-to-file AES encryption through memory-mapped windows, so multi-GB files never
+ * sit on the heap. Files use PKCS#7 padding; CBC files start with a random 16-byte IV.</p>
+ */
+public class AESFile {
+    static final int WINDOW = 64 << 20;  // bytes mapped at a time (multiple of 16)
+    static final int BUFFER = 1 << 20;   // heap staging buffer per transfer (multiple of 16)
+
+    /** One pass of the block engine over len bytes of a staging buffer. */
+    private interface Chunk {
+        void apply(byte[] in, byte[] out, int len);
+    }
+
+    /** Encrypt src into dst (ECB or CBC with a random IV), PKCS#7-padded. */
+    public static void encryptFile(AES aes, Path src, Path dst, boolean cbcMode) throws IOException {
+        try (FileChannel in  = FileChannel.open(src, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dst, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long len = in.size();
+            long body = len - len % 16;
+            long outPos = 0;
+            byte[] iv = new byte[16];
+            if (cbcMode) {
+                Rand.nextBytes(iv);
+                writeFully(out, iv, 16, 0);
+                outPos = 16;
+            }
+            Chunk op = cbcMode
+                    ? (b, o, n) -> aes.encryptCBC(b, 0, o, 0, n, iv)
+                    : (b, o, n) -> aes.encryptECB(b, 0, o, 0, n);
+            transform(in, 0, out, outPos, body, op);
+
+            // final block: the leftover bytes plus 1..16 bytes of padding
+            byte[] last = new byte[16];
+            int tail = (int)(len - body);
+            readFully(in, last, tail, body);
+            for (int i = tail; i < 16; i++) last[i] = (byte)(16 - tail);
+            op.apply(last, last, 16);
+            writeFully(out, last, 16, outPos + body);
+        }
+    }
+
+    /** Decrypt a file written by encryptFile with the same key and mode. */
+    public static void decryptFile(AES aes, Path src, Path dst, boolean cbcMode) throws IOException {
+        try (FileChannel in  = FileChannel.open(src, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dst, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long start = cbcMode ? 16 : 0;
+            long len = in.size() - start;
+            if (len < 16 || len % 16 != 0) {
+                throw new IOException("Ciphertext is not a whole number of blocks: " + src);
+            }
+            byte[] iv = new byte[16];
+            if (cbcMode) readFully(in, iv, 16, 0);
+            long body = len - 16;
+
+            // decrypt the last block first so the output size is known before mapping
+            byte[] last = new byte[16];
+            readFully(in, last, 16, start + body);
+            if (cbcMode) {
+                byte[] prev = iv.clone();
+                if (body > 0) readFully(in, prev, 16, start + body - 16);
+                aes.decryptCBCSequential(last, 0, last, 0, 16, prev);
+            } else {
+                aes.decryptBlock(last, 0, last, 0);
+            }
+            int pad = last[15] & 0xFF;
+            if (pad < 1 || pad > 16) throw new IOException("Bad padding in " + src);
+            for (int i = 16 - pad; i < 16; i++) {
+                if ((last[i] & 0xFF) != pad) throw new IOException("Bad padding in " + src);
+            }
+
+            Chunk op = cbcMode
+                    ? (b, o, n) -> aes.decryptCBC(b, 0, o, 0, n, iv)
+                    : (b, o, n) -> aes.decryptECB(b, 0, o, 0, n);
+            transform(in, start, out, 0, body, op);
+            writeFully(out, last, 16 - pad, body);
+        }
+    }
+
+    /** Stream n bytes (a multiple of 16) from in to out through mapped windows. */
+    private static void transform(FileChannel in, long inPos, FileChannel out, long outPos,
+                                  long n, Chunk op) throws IOException {
+        byte[] buf = new byte[(int) Math.min(BUFFER, n)];
+        byte[] res = new byte[buf.length];
+        for (long done = 0; done < n; ) {
+            long w = Math.min(WINDOW, n - done);
+            MappedByteBuffer src = in.map(FileChannel.MapMode.READ_ONLY, inPos + done, w);
+            MappedByteBuffer dst = out.map(FileChannel.MapMode.READ_WRITE, outPos + done, w);
+            while (src.hasRemaining()) {
+                int k = Math.min(buf.length, src.remaining());
+                src.get(buf, 0, k);
+                op.apply(buf, res, k);
+                dst.put(res, 0, k);
+            }
+            done += w;
+        }
+    }
+
+    private static void readFully(FileChannel ch, byte[] b, int len, long pos) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b, 0, len);
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, pos + bb.position()) < 0) throw new IOException("Unexpected end of file");
+        }
+    }
+
+    private static void writeFully(FileChannel ch, byte[] b, int len, long pos) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(b, 0, len);
+        while (bb.hasRemaining()) {
+            ch.write(bb, pos + bb.position());
+        }
+    }
+
+    /** CLI: java AESFile enc|dec ecb|cbc key in out */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5 || !args[0].matches("enc|dec") || !args[1].matches("ecb|cbc")) {
+            System.err.println("Usage: java AESFile enc|dec ecb|cbc <key> <in> <out>");
+            System.exit(1);
+        }
+        AES aes = new AES(args[2]);
+        boolean cbc = args[1].equals("cbc");
+        Path src = Paths.get(args[3]), dst = Paths.get(args[4]);
+        long t = System.nanoTime();
+        if (args[0].equals("enc")) encryptFile(aes, src, dst, cbc);
+        else                       decryptFile(aes, src, dst, cbc);
+        System.out.printf("%s -> %s in %.1f ms%n", src, dst, (System.nanoTime() - t) / 1e6);
+    }
+}
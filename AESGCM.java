@@ -0,0 +1,205 @@
+// AESGCM.java
+import java.security.MessageDigest;
+import java.util.Arrays;
+import javax.crypto.AEADBadTagException;
+
+/**
+ * <h1>AESGCM</h1>
+ * <p>Galois/Counter Mode (NIST SP 800-38D) on top of an AES instance: the block engine in
+ * counter mode for confidentiality, GHash over the associated data and ciphertext for the
+ * tag. Bulk counter-mode work goes through AES.ctr, so large inputs generate their keystream
+ * in parallel. Never encrypt two messages under the same key and IV.</p>
+ */
+public class AESGCM {
+    public static final int IV_LENGTH = 12;    // the recommended (and fastest) IV size
+    public static final int TAG_LENGTH = 16;
+
+    private final AES aes;
+    private final byte[] h = new byte[16];   // hash key E(K, 0^128)
+    private final int tagLength;
+
+    public AESGCM(byte[] key) {
+        this(new AES(key));
+    }
+    public AESGCM(AES aes) {
+        this(aes, TAG_LENGTH);
+    }
+    /** Truncated tags of 12 to 16 bytes. */
+    public AESGCM(AES aes, int tagLength) {
+        if (tagLength < 12 || tagLength > 16) throw new IllegalArgumentException("GCM tag must be 12 to 16 bytes");
+        this.aes = aes;
+        this.tagLength = tagLength;
+        aes.encryptBlock(h, 0, h, 0);
+    }
+
+    public int getTagLength() {
+        return tagLength;
+    }
+
+    /** Encrypt and authenticate; returns ciphertext || tag. aad may be null. */
+    public byte[] encrypt(byte[] iv, byte[] aad, byte[] plaintext) {
+        byte[] out = new byte[plaintext.length + tagLength];
+        Stream s = encryptor(iv);
+        if (aad != null) s.updateAAD(aad, 0, aad.length);
+        s.update(plaintext, 0, plaintext.length, out, 0);
+        System.arraycopy(s.finish(), 0, out, plaintext.length, tagLength);
+        return out;
+    }
+
+    /**
+     * Check the tag of ciphertext || tag and return the plaintext. The tag is verified before
+     * anything is decrypted, so a forgery releases no plaintext.
+     */
+    public byte[] decrypt(byte[] iv, byte[] aad, byte[] ciphertextAndTag) throws AEADBadTagException {
+        int len = ciphertextAndTag.length - tagLength;
+        if (len < 0) throw new AEADBadTagException("Input shorter than the tag");
+        Stream s = new Stream(iv, false);
+        if (aad != null) s.updateAAD(aad, 0, aad.length);
+        s.hashOnly(ciphertextAndTag, 0, len);
+        s.verify(Arrays.copyOfRange(ciphertextAndTag, len, ciphertextAndTag.length));
+        byte[] out = new byte[len];
+        ctr32(ciphertextAndTag, 0, out, 0, len, s.counter(1));
+        return out;
+    }
+
+    /** Incremental encryption: updateAAD*, update*, then finish() for the tag. */
+    public Stream encryptor(byte[] iv) {
+        return new Stream(iv, true);
+    }
+
+    /**
+     * Incremental decryption: updateAAD*, update*, then verify(tag). Plaintext comes out of
+     * update() before the tag is checked; don't act on it until verify() returns.
+     */
+    public Stream decryptor(byte[] iv) {
+        return new Stream(iv, false);
+    }
+
+    /** One GCM message in progress. */
+    public final class Stream {
+        private final boolean encrypt;
+        private final GHash ghash = new GHash(h);
+        private final byte[] j0;                  // pre-counter block; E(K, J0) masks the tag
+        private final byte[] cb;                  // next counter block
+        private final byte[] ks = new byte[16];   // keystream of a partly used block
+        private int ksPos = 16;
+        private long aadLen, dataLen;
+        private boolean dataStarted, finished;
+
+        private Stream(byte[] iv, boolean encrypt) {
+            if (iv == null || iv.length == 0) throw new IllegalArgumentException("GCM IV must not be empty");
+            this.encrypt = encrypt;
+            if (iv.length == IV_LENGTH) {
+                j0 = Arrays.copyOf(iv, 16);
+                j0[15] = 1;
+            } else {
+                GHash g = new GHash(h);
+                g.update(iv, 0, iv.length);
+                j0 = g.digest(0, 8L * iv.length);
+            }
+            cb = counter(1);
+        }
+
+        /** J0 + n in the low 32 bits. */
+        private byte[] counter(int n) {
+            byte[] c = j0.clone();
+            inc32(c, n);
+            return c;
+        }
+
+        /** Authenticate associated data; all of it must come before the first update(). */
+        public void updateAAD(byte[] aad, int off, int len) {
+            if (finished) throw new IllegalStateException("GCM message already finished");
+            if (dataStarted) throw new IllegalStateException("AAD must come before the data");
+            ghash.update(aad, off, len);
+            aadLen += len;
+        }
+
+        /** Transform len bytes from in into out (same length; in and out may be the same range). */
+        public void update(byte[] in, int inOff, int len, byte[] out, int outOff) {
+            beginData(len);
+            if (!encrypt) ghash.update(in, inOff, len);
+            int done = 0;
+            // finish a block whose keystream is already partly used
+            while (ksPos < 16 && done < len) {
+                out[outOff + done] = (byte)(in[inOff + done] ^ ks[ksPos++]);
+                done++;
+            }
+            int bulk = (len - done) & ~15;
+            if (bulk > 0) {
+                ctr32(in, inOff + done, out, outOff + done, bulk, cb);
+                inc32(cb, bulk >>> 4);
+                done += bulk;
+            }
+            if (done < len) {
+                aes.encryptBlock(cb, 0, ks, 0);
+                inc32(cb, 1);
+                ksPos = 0;
+                while (done < len) {
+                    out[outOff + done] = (byte)(in[inOff + done] ^ ks[ksPos++]);
+                    done++;
+                }
+            }
+            if (encrypt) ghash.update(out, outOff, len);
+        }
+
+        /** Absorb ciphertext without decrypting it (decrypt() checks the tag first). */
+        private void hashOnly(byte[] in, int inOff, int len) {
+            beginData(len);
+            ghash.update(in, inOff, len);
+        }
+
+        private void beginData(long len) {
+            if (finished) throw new IllegalStateException("GCM message already finished");
+            if (!dataStarted) {
+                ghash.pad();
+                dataStarted = true;
+            }
+            dataLen += len;
+            // 2^32 - 2 blocks per message
+            if (dataLen > (1L << 36) - 32) throw new IllegalStateException("GCM message too long");
+        }
+
+        /** End the message and return the tag (tagLength bytes). */
+        public byte[] finish() {
+            if (finished) throw new IllegalStateException("GCM message already finished");
+            finished = true;
+            byte[] s = ghash.digest(8 * aadLen, 8 * dataLen);
+            byte[] mask = new byte[16];
+            aes.encryptBlock(j0, 0, mask, 0);
+            for (int i = 0; i < 16; i++) s[i] ^= mask[i];
+            return Arrays.copyOf(s, tagLength);
+        }
+
+        /** End the message and compare tags in constant time. */
+        public void verify(byte[] tag) throws AEADBadTagException {
+            if (!MessageDigest.isEqual(finish(), tag)) throw new AEADBadTagException("GCM tag mismatch");
+        }
+    }
+
+    /**
+     * Counter mode with GCM's inc32: only the low 32 bits of the counter count, wrapping
+     * without carry. AES.ctr carries into the upper 96 bits, so split the range at the wrap.
+     */
+    private void ctr32(byte[] in, int inOff, byte[] out, int outOff, int len, byte[] cb) {
+        long room = (1L << 32) - (GHash.getLong(cb, 8) & 0xFFFFFFFFL);   // blocks before the wrap
+        if ((len + 15L) >>> 4 <= room) {
+            aes.ctr(in, inOff, out, outOff, len, cb);
+            return;
+        }
+        int first = (int) (16 * room);
+        aes.ctr(in, inOff, out, outOff, first, cb);
+        byte[] wrapped = cb.clone();
+        inc32(wrapped, (int) room);
+        aes.ctr(in, inOff + first, out, outOff + first, len - first, wrapped);
+    }
+
+    /** Add n to the low 32 bits of a counter block, mod 2^32. */
+    private static void inc32(byte[] cb, int n) {
+        int c = ((cb[12] & 0xFF) << 24 | (cb[13] & 0xFF) << 16 | (cb[14] & 0xFF) << 8 | (cb[15] & 0xFF)) + n;
+        cb[12] = (byte)(c >>> 24);
+        cb[13] = (byte)(c >>> 16);
+        cb[14] = (byte)(c >>> 8);
+        cb[15] = (byte) c;
+    }
+}
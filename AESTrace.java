@@ -0,0 +1,194 @@
+// AESTrace.java
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * <h1>AESTrace</h1>
+ * <p>Sink for the AES debug trace: the step name and the 4x4 state after every step of every
+ * round. The stdout, file and Collector sinks keep the old debug=true printState format (step
+ * name, four rows of hex, a blank line); Reference renders the layout of
+ * <code>AES Debug.txt</code>, with each step's input, round key and output. AES formats nothing
+ * unless it was built with a sink other than NONE.</p>
+ */
+public interface AESTrace {
+
+    /** The state after one step. */
+    void step(String name, int[][] state);
+
+    /** The block before its first step. */
+    default void beginBlock(int[][] state) {
+    }
+
+    /** The round key, reported just before its "Add Round Key" step. */
+    default void roundKey(int[][] key) {
+    }
+
+    /** Called after each block's trace; sinks that share a stream write it out here. */
+    default void endBlock() {
+    }
+
+    /** Discards everything; an AES built with it runs the untraced fast path. */
+    AESTrace NONE = (name, state) -> { };
+
+    /** Append one step in the printState format. */
+    static void format(StringBuilder sb, String name, int[][] state) {
+        sb.append(name).append(System.lineSeparator());
+        rows(sb, state);
+    }
+
+    /** Four rows of hex and a blank line. */
+    static void rows(StringBuilder sb, int[][] state) {
+        final String nl = System.lineSeparator();
+        final char[] hex = "0123456789abcdef".toCharArray();
+        for (int[] row : state) {
+            for (int v : row) sb.append(hex[(v >>> 4) & 0xF]).append(hex[v & 0xF]);
+            sb.append(nl);
+        }
+        sb.append(nl);
+    }
+
+    /** Each block's trace goes to out in one write, so it stays in order with other output. */
+    static AESTrace to(PrintStream out) {
+        return new AESTrace() {
+            private final StringBuilder sb = new StringBuilder(4096);
+
+            @Override
+            public synchronized void step(String name, int[][] state) {
+                format(sb, name, state);
+            }
+
+            @Override
+            public synchronized void endBlock() {
+                out.print(sb);
+                out.flush();
+                sb.setLength(0);
+            }
+        };
+    }
+
+    /** The old debug=true behaviour: trace to System.out. */
+    static AESTrace stdout() {
+        return to(System.out);
+    }
+
+    /** Buffered trace file, created or truncated; close it when done. */
+    static WriterSink toFile(Path file) throws IOException {
+        return new WriterSink(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+    }
+
+    /** Trace into a Writer through a 64 KiB buffer. */
+    final class WriterSink implements AESTrace, Closeable {
+        private final Writer out;
+        private final StringBuilder sb = new StringBuilder(256);
+
+        public WriterSink(Writer out) {
+            this.out = out instanceof BufferedWriter ? out : new BufferedWriter(out, 1 << 16);
+        }
+
+        @Override
+        public synchronized void step(String name, int[][] state) {
+            sb.setLength(0);
+            format(sb, name, state);
+            try {
+                out.append(sb);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /** Keeps the whole trace in memory, e.g. to compare two runs. */
+    final class Collector implements AESTrace {
+        private final StringBuilder sb = new StringBuilder();
+        private int steps;
+
+        @Override
+        public synchronized void step(String name, int[][] state) {
+            format(sb, name, state);
+            steps++;
+        }
+
+        public synchronized int steps() {
+            return steps;
+        }
+
+        public synchronized void clear() {
+            sb.setLength(0);
+            steps = 0;
+        }
+
+        /** The trace so far, exactly as the stdout sink would have printed it. */
+        @Override
+        public synchronized String toString() {
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Keeps the trace in memory in the layout of AES Debug.txt: step name, input state, the
+     * round key for Add Round Key, output state. Decryption steps use the forward names there,
+     * so "Inv Mix Columns" is written as "Mix Columns".
+     */
+    final class Reference implements AESTrace {
+        private final StringBuilder sb = new StringBuilder();
+        private final int[][] input = new int[4][4];
+        private int[][] key;
+
+        /** The "Key Schedule:" section: one line of hex per round key. */
+        public static String keySchedule(KeySchedule ks) {
+            final String nl = System.lineSeparator();
+            StringBuilder sb = new StringBuilder("Key Schedule:").append(nl);
+            for (int round = 0; round <= ks.Nr; round++) {
+                for (int c = 0; c < 4; c++) sb.append(String.format("%08x", ks.ek[round*4 + c]));
+                sb.append(nl);
+            }
+            return sb.append(nl).toString();
+        }
+
+        @Override
+        public synchronized void beginBlock(int[][] state) {
+            for (int r = 0; r < 4; r++) input[r] = state[r].clone();
+        }
+
+        @Override
+        public synchronized void roundKey(int[][] key) {
+            this.key = key;
+        }
+
+        @Override
+        public synchronized void step(String name, int[][] state) {
+            sb.append(name.startsWith("Inv ") ? name.substring(4) : name).append(System.lineSeparator());
+            rows(sb, input);
+            if (key != null && name.equals("Add Round Key")) rows(sb, key);
+            key = null;
+            rows(sb, state);
+            for (int r = 0; r < 4; r++) input[r] = state[r].clone();
+        }
+
+        public synchronized void clear() {
+            sb.setLength(0);
+            key = null;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,444 @@
+// BitslicedAES.java
+
+/**
+ * <h1>BitslicedAES</h1>
+ * <p>Constant-time AES over eight blocks at a time. The 64 state bytes of four blocks are
+ * transposed into eight 64-bit bit planes (plane b holds bit b of every byte), and a pass
+ * runs two such plane sets, the S-box circuits of both interleaved gate by gate so the CPU
+ * can overlap them. SubBytes is the Boyar–Peralta Boolean circuit, and ShiftRows /
+ * MixColumns are masks, rotations and XORs. No table is indexed by key or data, so timing
+ * does not depend on either.</p>
+ *
+ * <p>Bit p of a plane is byte (row p/16, column (p/4)%4) of block p%4, so a row is one
+ * 16-bit lane: MixColumns rotates whole lanes and ShiftRows rotates within them.</p>
+ */
+public final class BitslicedAES {
+    /** Blocks processed per pass: two plane sets of GROUP blocks. */
+    public static final int BLOCKS = 8;
+    static final int GROUP = 4;   // blocks in one set of eight bit planes
+
+    private final int Nr;
+    private final long[] sk;   // bitsliced round keys: 8 planes per round
+
+    public BitslicedAES(KeySchedule schedule) {
+        this.Nr = schedule.Nr;
+        this.sk = new long[8 * (Nr + 1)];
+        byte[] rk = new byte[16 * GROUP];
+        long[] q = new long[8];
+        for (int round = 0; round <= Nr; round++) {
+            for (int c = 0; c < 4; c++) {
+                int w = schedule.ek[round * 4 + c];
+                for (int r = 0; r < 4; r++) rk[4 * c + r] = (byte)(w >>> (24 - 8 * r));
+            }
+            for (int b = 1; b < GROUP; b++) System.arraycopy(rk, 0, rk, 16 * b, 16);
+            load(rk, 0, GROUP, q);
+            System.arraycopy(q, 0, sk, 8 * round, 8);
+        }
+    }
+
+    /** Encrypt blocks 16-byte blocks; in and out may overlap exactly. */
+    public void encryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        long[] q = new long[8], p = new long[8];
+        for (int i = 0; i < blocks; i += BLOCKS) {
+            int n = Math.min(BLOCKS, blocks - i), o = 16 * i;
+            if (n <= GROUP) {
+                load(in, inOff + o, n, q);
+                encrypt(q);
+                store(q, out, outOff + o, n);
+            } else {
+                load(in, inOff + o, GROUP, q);
+                load(in, inOff + o + 16 * GROUP, n - GROUP, p);
+                encrypt(q, p);
+                store(q, out, outOff + o, GROUP);
+                store(p, out, outOff + o + 16 * GROUP, n - GROUP);
+            }
+        }
+    }
+
+    /** Decrypt blocks 16-byte blocks; in and out may overlap exactly. */
+    public void decryptBlocks(byte[] in, int inOff, byte[] out, int outOff, int blocks) {
+        long[] q = new long[8], p = new long[8];
+        for (int i = 0; i < blocks; i += BLOCKS) {
+            int n = Math.min(BLOCKS, blocks - i), o = 16 * i;
+            if (n <= GROUP) {
+                load(in, inOff + o, n, q);
+                decrypt(q);
+                store(q, out, outOff + o, n);
+            } else {
+                load(in, inOff + o, GROUP, q);
+                load(in, inOff + o + 16 * GROUP, n - GROUP, p);
+                decrypt(q, p);
+                store(q, out, outOff + o, GROUP);
+                store(p, out, outOff + o + 16 * GROUP, n - GROUP);
+            }
+        }
+    }
+
+    /** One plane set, for passes of at most GROUP blocks (single-block calls among them). */
+    private void encrypt(long[] q) {
+        addRoundKey(q, 0);
+        for (int round = 1; round < Nr; round++) {
+            subBytes(q);
+            shiftMixColumns(q, true);
+            addRoundKey(q, round);
+        }
+        subBytes(q);
+        shiftRows(q);
+        addRoundKey(q, Nr);
+    }
+
+    private void encrypt(long[] q, long[] p) {
+        addRoundKey(q, 0);
+        addRoundKey(p, 0);
+        for (int round = 1; round < Nr; round++) {
+            subBytes(q, p);
+            shiftMixColumns(q, true);
+            shiftMixColumns(p, true);
+            addRoundKey(q, round);
+            addRoundKey(p, round);
+        }
+        subBytes(q, p);
+        shiftRows(q);
+        shiftRows(p);
+        addRoundKey(q, Nr);
+        addRoundKey(p, Nr);
+    }
+
+    private void decrypt(long[] q) {
+        addRoundKey(q, Nr);
+        for (int round = Nr - 1; round > 0; round--) {
+            invShiftRows(q);
+            invSubBytes(q);
+            addRoundKey(q, round);
+            invMixColumns(q);
+        }
+        invShiftRows(q);
+        invSubBytes(q);
+        addRoundKey(q, 0);
+    }
+
+    private void decrypt(long[] q, long[] p) {
+        addRoundKey(q, Nr);
+        addRoundKey(p, Nr);
+        for (int round = Nr - 1; round > 0; round--) {
+            invShiftRows(q);
+            invShiftRows(p);
+            invSubBytes(q, p);
+            addRoundKey(q, round);
+            addRoundKey(p, round);
+            invMixColumns(q);
+            invMixColumns(p);
+        }
+        invShiftRows(q);
+        invShiftRows(p);
+        invSubBytes(q, p);
+        addRoundKey(q, 0);
+        addRoundKey(p, 0);
+    }
+
+    private void addRoundKey(long[] q, int round) {
+        int k = 8 * round;
+        for (int b = 0; b < 8; b++) q[b] ^= sk[k + b];
+    }
+
+    // --- packing ---
+
+    /**
+     * Load n blocks (missing ones as zero) into bit planes. Word j of the eight 64-bit words
+     * gets columns 0 and 2 (j < 4) or 1 and 3 of block j%4, bytes interleaved row by row, so
+     * after the 8x8 transpose bit 8k+j of plane b is bit b of byte k of word j.
+     */
+    static void load(byte[] in, int off, int n, long[] q) {
+        for (int blk = 0; blk < GROUP; blk++) {
+            if (blk < n) {
+                int o = off + 16 * blk;
+                q[blk]     = spread(le32(in, o))     | (spread(le32(in, o + 8))  << 8);
+                q[blk + 4] = spread(le32(in, o + 4)) | (spread(le32(in, o + 12)) << 8);
+            } else {
+                q[blk] = 0;
+                q[blk + 4] = 0;
+            }
+        }
+        ortho(q);
+    }
+
+    /** Inverse of load for the first n blocks. */
+    static void store(long[] q, byte[] out, int off, int n) {
+        ortho(q);
+        for (int blk = 0; blk < n; blk++) {
+            int o = off + 16 * blk;
+            long w0 = q[blk], w1 = q[blk + 4];
+            putLe32(out, o,      compact(w0));
+            putLe32(out, o + 4,  compact(w1));
+            putLe32(out, o + 8,  compact(w0 >>> 8));
+            putLe32(out, o + 12, compact(w1 >>> 8));
+        }
+    }
+
+    /** Byte r of x to byte 2r. */
+    private static long spread(int x) {
+        long v = x & 0xFFFFFFFFL;
+        v = (v | (v << 16)) & 0x0000FFFF0000FFFFL;
+        v = (v | (v << 8))  & 0x00FF00FF00FF00FFL;
+        return v;
+    }
+
+    /** Byte 2r of x to byte r. */
+    private static int compact(long x) {
+        long v = x & 0x00FF00FF00FF00FFL;
+        v = (v | (v >>> 8))  & 0x0000FFFF0000FFFFL;
+        v = (v | (v >>> 16)) & 0x00000000FFFFFFFFL;
+        return (int) v;
+    }
+
+    /** Transpose the word index with the bit-within-byte index (its own inverse). */
+    private static void ortho(long[] q) {
+        swap(q, 0, 1, 0x5555555555555555L, 1); swap(q, 2, 3, 0x5555555555555555L, 1);
+        swap(q, 4, 5, 0x5555555555555555L, 1); swap(q, 6, 7, 0x5555555555555555L, 1);
+        swap(q, 0, 2, 0x3333333333333333L, 2); swap(q, 1, 3, 0x3333333333333333L, 2);
+        swap(q, 4, 6, 0x3333333333333333L, 2); swap(q, 5, 7, 0x3333333333333333L, 2);
+        swap(q, 0, 4, 0x0F0F0F0F0F0F0F0FL, 4); swap(q, 1, 5, 0x0F0F0F0F0F0F0F0FL, 4);
+        swap(q, 2, 6, 0x0F0F0F0F0F0F0F0FL, 4); swap(q, 3, 7, 0x0F0F0F0F0F0F0F0FL, 4);
+    }
+
+    private static void swap(long[] q, int x, int y, long lo, int s) {
+        long a = q[x], b = q[y];
+        q[x] = (a & lo) | ((b & lo) << s);
+        q[y] = ((a >>> s) & lo) | (b & ~lo);
+    }
+
+    private static int le32(byte[] b, int off) {
+        return (b[off] & 0xFF) | ((b[off+1] & 0xFF) << 8) | ((b[off+2] & 0xFF) << 16) | (b[off+3] << 24);
+    }
+
+    private static void putLe32(byte[] b, int off, int v) {
+        b[off]   = (byte) v;
+        b[off+1] = (byte)(v >>> 8);
+        b[off+2] = (byte)(v >>> 16);
+        b[off+3] = (byte)(v >>> 24);
+    }
+
+    // --- round functions on bit planes ---
+
+    private static void shiftRows(long[] q) {
+        for (int b = 0; b < 8; b++) q[b] = shiftRows(q[b]);
+    }
+
+    /** Row r rotates left by r columns: a right rotation by 4r bits inside lane r. */
+    private static long shiftRows(long x) {
+        return (x & 0x000000000000FFFFL)
+             | ((x >>> 4)  & 0x000000000FFF0000L) | ((x << 12) & 0x00000000F0000000L)
+             | ((x >>> 8)  & 0x000000FF00000000L) | ((x << 8)  & 0x0000FF0000000000L)
+             | ((x >>> 12) & 0x000F000000000000L) | ((x << 4)  & 0xFFF0000000000000L);
+    }
+
+    private static void invShiftRows(long[] q) {
+        for (int b = 0; b < 8; b++) {
+            long x = q[b];
+            q[b] = (x & 0x000000000000FFFFL)
+                 | ((x << 4)   & 0x00000000FFF00000L) | ((x >>> 12) & 0x00000000000F0000L)
+                 | ((x >>> 8)  & 0x000000FF00000000L) | ((x << 8)   & 0x0000FF0000000000L)
+                 | ((x << 12)  & 0xF000000000000000L) | ((x >>> 4)  & 0x0FFF000000000000L);
+        }
+    }
+
+    /**
+     * MixColumns, preceded by ShiftRows when shift is set (one pass over the planes):
+     * b_r = 2(a_r ^ a_r+1) ^ a_r+1 ^ a_r+2 ^ a_r+3 per column, where rotating a plane right
+     * by 16 bits moves every row up by one.
+     */
+    private static void shiftMixColumns(long[] q, boolean shift) {
+        long q0 = q[0], q1 = q[1], q2 = q[2], q3 = q[3], q4 = q[4], q5 = q[5], q6 = q[6], q7 = q[7];
+        if (shift) {
+            q0 = shiftRows(q0); q1 = shiftRows(q1); q2 = shiftRows(q2); q3 = shiftRows(q3);
+            q4 = shiftRows(q4); q5 = shiftRows(q5); q6 = shiftRows(q6); q7 = shiftRows(q7);
+        }
+        long r0 = rot16(q0), r1 = rot16(q1), r2 = rot16(q2), r3 = rot16(q3);
+        long r4 = rot16(q4), r5 = rot16(q5), r6 = rot16(q6), r7 = rot16(q7);
+        long t0 = q0 ^ r0, t1 = q1 ^ r1, t2 = q2 ^ r2, t3 = q3 ^ r3;
+        long t4 = q4 ^ r4, t5 = q5 ^ r5, t6 = q6 ^ r6, t7 = q7 ^ r7;
+        // x * t (xtime on planes), plus a_r+1 ^ a_r+2 ^ a_r+3 = r ^ rot32(a ^ r)
+        q[0] = t7      ^ r0 ^ rot32(t0);
+        q[1] = t0 ^ t7 ^ r1 ^ rot32(t1);
+        q[2] = t1      ^ r2 ^ rot32(t2);
+        q[3] = t2 ^ t7 ^ r3 ^ rot32(t3);
+        q[4] = t3 ^ t7 ^ r4 ^ rot32(t4);
+        q[5] = t4      ^ r5 ^ rot32(t5);
+        q[6] = t5      ^ r6 ^ rot32(t6);
+        q[7] = t6      ^ r7 ^ rot32(t7);
+    }
+
+    /** a_r ^= 4(a_r ^ a_r+2), then MixColumns (InvMixColumns = MixColumns * that step). */
+    private static void invMixColumns(long[] q) {
+        long u0 = q[0] ^ rot32(q[0]), u1 = q[1] ^ rot32(q[1]), u2 = q[2] ^ rot32(q[2]), u3 = q[3] ^ rot32(q[3]);
+        long u4 = q[4] ^ rot32(q[4]), u5 = q[5] ^ rot32(q[5]), u6 = q[6] ^ rot32(q[6]), u7 = q[7] ^ rot32(q[7]);
+        // 4u: bit i gets u_(i-2), with the reduction terms of x^8 and x^9
+        q[0] ^= u6;
+        q[1] ^= u6 ^ u7;
+        q[2] ^= u0 ^ u7;
+        q[3] ^= u1 ^ u6;
+        q[4] ^= u2 ^ u6 ^ u7;
+        q[5] ^= u3 ^ u7;
+        q[6] ^= u4;
+        q[7] ^= u5;
+        shiftMixColumns(q, false);
+    }
+
+    private static long rot16(long x) {
+        return Long.rotateRight(x, 16);
+    }
+
+    private static long rot32(long x) {
+        return Long.rotateRight(x, 32);
+    }
+
+    /** Boyar–Peralta S-box circuit (113 gates); x0 is the most significant bit plane. */
+    private static void subBytes(long[] q) {
+        long x0 = q[7], x1 = q[6], x2 = q[5], x3 = q[4], x4 = q[3], x5 = q[2], x6 = q[1], x7 = q[0];
+
+        // top linear transformation
+        long y14 = x3 ^ x5, y13 = x0 ^ x6, y9 = x0 ^ x3, y8 = x0 ^ x5;
+        long t0 = x1 ^ x2;
+        long y1 = t0 ^ x7, y4 = y1 ^ x3, y12 = y13 ^ y14, y2 = y1 ^ x0, y5 = y1 ^ x6, y3 = y5 ^ y8;
+        long t1 = x4 ^ y12;
+        long y15 = t1 ^ x5, y20 = t1 ^ x1, y6 = y15 ^ x7, y10 = y15 ^ t0, y11 = y20 ^ y9;
+        long y7 = x7 ^ y11, y17 = y10 ^ y11, y19 = y10 ^ y8, y16 = t0 ^ y11;
+        long y21 = y13 ^ y16, y18 = x0 ^ y16;
+
+        // non-linear section
+        long t2 = y12 & y15, t3 = y3 & y6, t4 = t3 ^ t2, t5 = y4 & x7, t6 = t5 ^ t2;
+        long t7 = y13 & y16, t8 = y5 & y1, t9 = t8 ^ t7, t10 = y2 & y7, t11 = t10 ^ t7;
+        long t12 = y9 & y11, t13 = y14 & y17, t14 = t13 ^ t12, t15 = y8 & y10, t16 = t15 ^ t12;
+        long t17 = t4 ^ t14, t18 = t6 ^ t16, t19 = t9 ^ t14, t20 = t11 ^ t16;
+        long t21 = t17 ^ y20, t22 = t18 ^ y19, t23 = t19 ^ y21, t24 = t20 ^ y18;
+
+        long t25 = t21 ^ t22, t26 = t21 & t23, t27 = t24 ^ t26, t28 = t25 & t27, t29 = t28 ^ t22;
+        long t30 = t23 ^ t24, t31 = t22 ^ t26, t32 = t31 & t30, t33 = t32 ^ t24, t34 = t23 ^ t33;
+        long t35 = t27 ^ t33, t36 = t24 & t35, t37 = t36 ^ t34, t38 = t27 ^ t36, t39 = t29 & t38;
+        long t40 = t25 ^ t39;
+
+        long t41 = t40 ^ t37, t42 = t29 ^ t33, t43 = t29 ^ t40, t44 = t33 ^ t37, t45 = t42 ^ t41;
+        long z0 = t44 & y15, z1 = t37 & y6, z2 = t33 & x7, z3 = t43 & y16, z4 = t40 & y1;
+        long z5 = t29 & y7, z6 = t42 & y11, z7 = t45 & y17, z8 = t41 & y10, z9 = t44 & y12;
+        long z10 = t37 & y3, z11 = t33 & y4, z12 = t43 & y13, z13 = t40 & y5, z14 = t29 & y2;
+        long z15 = t42 & y9, z16 = t45 & y14, z17 = t41 & y8;
+
+        // bottom linear transformation
+        long t46 = z15 ^ z16, t47 = z10 ^ z11, t48 = z5 ^ z13, t49 = z9 ^ z10, t50 = z2 ^ z12;
+        long t51 = z2 ^ z5, t52 = z7 ^ z8, t53 = z0 ^ z3, t54 = z6 ^ z7, t55 = z16 ^ z17;
+        long t56 = z12 ^ t48, t57 = t50 ^ t53, t58 = z4 ^ t46, t59 = z3 ^ t54, t60 = t46 ^ t57;
+        long t61 = z14 ^ t57, t62 = t52 ^ t58, t63 = t49 ^ t58, t64 = z4 ^ t59, t65 = t61 ^ t62;
+        long t66 = z1 ^ t63;
+        long s0 = t59 ^ t63, s6 = t56 ^ ~t62, s7 = t48 ^ ~t60;
+        long t67 = t64 ^ t65;
+        long s3 = t53 ^ t66, s4 = t51 ^ t66, s5 = t47 ^ t65, s1 = t64 ^ ~s3, s2 = t55 ^ ~t67;
+
+        q[7] = s0; q[6] = s1; q[5] = s2; q[4] = s3; q[3] = s4; q[2] = s5; q[1] = s6; q[0] = s7;
+    }
+
+    /**
+     * The same circuit on two plane sets, gate by gate, so the two dependency chains overlap;
+     * upper-case names are the second set's.
+     */
+    private static void subBytes(long[] q, long[] p) {
+        long x0 = q[7], x1 = q[6], x2 = q[5], x3 = q[4], x4 = q[3], x5 = q[2], x6 = q[1], x7 = q[0];
+        long X0 = p[7], X1 = p[6], X2 = p[5], X3 = p[4], X4 = p[3], X5 = p[2], X6 = p[1], X7 = p[0];
+
+        // top linear transformation
+        long y14 = x3 ^ x5, y13 = x0 ^ x6, y9 = x0 ^ x3, y8 = x0 ^ x5;
+        long Y14 = X3 ^ X5, Y13 = X0 ^ X6, Y9 = X0 ^ X3, Y8 = X0 ^ X5;
+        long t0 = x1 ^ x2;
+        long T0 = X1 ^ X2;
+        long y1 = t0 ^ x7, y4 = y1 ^ x3, y12 = y13 ^ y14, y2 = y1 ^ x0, y5 = y1 ^ x6, y3 = y5 ^ y8;
+        long Y1 = T0 ^ X7, Y4 = Y1 ^ X3, Y12 = Y13 ^ Y14, Y2 = Y1 ^ X0, Y5 = Y1 ^ X6, Y3 = Y5 ^ Y8;
+        long t1 = x4 ^ y12;
+        long T1 = X4 ^ Y12;
+        long y15 = t1 ^ x5, y20 = t1 ^ x1, y6 = y15 ^ x7, y10 = y15 ^ t0, y11 = y20 ^ y9;
+        long Y15 = T1 ^ X5, Y20 = T1 ^ X1, Y6 = Y15 ^ X7, Y10 = Y15 ^ T0, Y11 = Y20 ^ Y9;
+        long y7 = x7 ^ y11, y17 = y10 ^ y11, y19 = y10 ^ y8, y16 = t0 ^ y11;
+        long Y7 = X7 ^ Y11, Y17 = Y10 ^ Y11, Y19 = Y10 ^ Y8, Y16 = T0 ^ Y11;
+        long y21 = y13 ^ y16, y18 = x0 ^ y16;
+        long Y21 = Y13 ^ Y16, Y18 = X0 ^ Y16;
+
+        // non-linear section
+        long t2 = y12 & y15, t3 = y3 & y6, t4 = t3 ^ t2, t5 = y4 & x7, t6 = t5 ^ t2;
+        long T2 = Y12 & Y15, T3 = Y3 & Y6, T4 = T3 ^ T2, T5 = Y4 & X7, T6 = T5 ^ T2;
+        long t7 = y13 & y16, t8 = y5 & y1, t9 = t8 ^ t7, t10 = y2 & y7, t11 = t10 ^ t7;
+        long T7 = Y13 & Y16, T8 = Y5 & Y1, T9 = T8 ^ T7, T10 = Y2 & Y7, T11 = T10 ^ T7;
+        long t12 = y9 & y11, t13 = y14 & y17, t14 = t13 ^ t12, t15 = y8 & y10, t16 = t15 ^ t12;
+        long T12 = Y9 & Y11, T13 = Y14 & Y17, T14 = T13 ^ T12, T15 = Y8 & Y10, T16 = T15 ^ T12;
+        long t17 = t4 ^ t14, t18 = t6 ^ t16, t19 = t9 ^ t14, t20 = t11 ^ t16;
+        long T17 = T4 ^ T14, T18 = T6 ^ T16, T19 = T9 ^ T14, T20 = T11 ^ T16;
+        long t21 = t17 ^ y20, t22 = t18 ^ y19, t23 = t19 ^ y21, t24 = t20 ^ y18;
+        long T21 = T17 ^ Y20, T22 = T18 ^ Y19, T23 = T19 ^ Y21, T24 = T20 ^ Y18;
+
+        long t25 = t21 ^ t22, t26 = t21 & t23, t27 = t24 ^ t26, t28 = t25 & t27, t29 = t28 ^ t22;
+        long T25 = T21 ^ T22, T26 = T21 & T23, T27 = T24 ^ T26, T28 = T25 & T27, T29 = T28 ^ T22;
+        long t30 = t23 ^ t24, t31 = t22 ^ t26, t32 = t31 & t30, t33 = t32 ^ t24, t34 = t23 ^ t33;
+        long T30 = T23 ^ T24, T31 = T22 ^ T26, T32 = T31 & T30, T33 = T32 ^ T24, T34 = T23 ^ T33;
+        long t35 = t27 ^ t33, t36 = t24 & t35, t37 = t36 ^ t34, t38 = t27 ^ t36, t39 = t29 & t38;
+        long T35 = T27 ^ T33, T36 = T24 & T35, T37 = T36 ^ T34, T38 = T27 ^ T36, T39 = T29 & T38;
+        long t40 = t25 ^ t39;
+        long T40 = T25 ^ T39;
+
+        long t41 = t40 ^ t37, t42 = t29 ^ t33, t43 = t29 ^ t40, t44 = t33 ^ t37, t45 = t42 ^ t41;
+        long T41 = T40 ^ T37, T42 = T29 ^ T33, T43 = T29 ^ T40, T44 = T33 ^ T37, T45 = T42 ^ T41;
+        long z0 = t44 & y15, z1 = t37 & y6, z2 = t33 & x7, z3 = t43 & y16, z4 = t40 & y1;
+        long Z0 = T44 & Y15, Z1 = T37 & Y6, Z2 = T33 & X7, Z3 = T43 & Y16, Z4 = T40 & Y1;
+        long z5 = t29 & y7, z6 = t42 & y11, z7 = t45 & y17, z8 = t41 & y10, z9 = t44 & y12;
+        long Z5 = T29 & Y7, Z6 = T42 & Y11, Z7 = T45 & Y17, Z8 = T41 & Y10, Z9 = T44 & Y12;
+        long z10 = t37 & y3, z11 = t33 & y4, z12 = t43 & y13, z13 = t40 & y5, z14 = t29 & y2;
+        long Z10 = T37 & Y3, Z11 = T33 & Y4, Z12 = T43 & Y13, Z13 = T40 & Y5, Z14 = T29 & Y2;
+        long z15 = t42 & y9, z16 = t45 & y14, z17 = t41 & y8;
+        long Z15 = T42 & Y9, Z16 = T45 & Y14, Z17 = T41 & Y8;
+
+        // bottom linear transformation
+        long t46 = z15 ^ z16, t47 = z10 ^ z11, t48 = z5 ^ z13, t49 = z9 ^ z10, t50 = z2 ^ z12;
+        long T46 = Z15 ^ Z16, T47 = Z10 ^ Z11, T48 = Z5 ^ Z13, T49 = Z9 ^ Z10, T50 = Z2 ^ Z12;
+        long t51 = z2 ^ z5, t52 = z7 ^ z8, t53 = z0 ^ z3, t54 = z6 ^ z7, t55 = z16 ^ z17;
+        long T51 = Z2 ^ Z5, T52 = Z7 ^ Z8, T53 = Z0 ^ Z3, T54 = Z6 ^ Z7, T55 = Z16 ^ Z17;
+        long t56 = z12 ^ t48, t57 = t50 ^ t53, t58 = z4 ^ t46, t59 = z3 ^ t54, t60 = t46 ^ t57;
+        long T56 = Z12 ^ T48, T57 = T50 ^ T53, T58 = Z4 ^ T46, T59 = Z3 ^ T54, T60 = T46 ^ T57;
+        long t61 = z14 ^ t57, t62 = t52 ^ t58, t63 = t49 ^ t58, t64 = z4 ^ t59, t65 = t61 ^ t62;
+        long T61 = Z14 ^ T57, T62 = T52 ^ T58, T63 = T49 ^ T58, T64 = Z4 ^ T59, T65 = T61 ^ T62;
+        long t66 = z1 ^ t63;
+        long T66 = Z1 ^ T63;
+        long s0 = t59 ^ t63, s6 = t56 ^ ~t62, s7 = t48 ^ ~t60;
+        long S0 = T59 ^ T63, S6 = T56 ^ ~T62, S7 = T48 ^ ~T60;
+        long t67 = t64 ^ t65;
+        long T67 = T64 ^ T65;
+        long s3 = t53 ^ t66, s4 = t51 ^ t66, s5 = t47 ^ t65, s1 = t64 ^ ~s3, s2 = t55 ^ ~t67;
+        long S3 = T53 ^ T66, S4 = T51 ^ T66, S5 = T47 ^ T65, S1 = T64 ^ ~S3, S2 = T55 ^ ~T67;
+
+        q[7] = s0; q[6] = s1; q[5] = s2; q[4] = s3; q[3] = s4; q[2] = s5; q[1] = s6; q[0] = s7;
+        p[7] = S0; p[6] = S1; p[5] = S2; p[4] = S3; p[3] = S4; p[2] = S5; p[1] = S6; p[0] = S7;
+    }
+
+    /** InvS(y) = T(S(T(y))) with T(v) = A^-1(v ^ 0x63), A the S-box affine map. */
+    private static void invSubBytes(long[] q) {
+        invAffine(q);
+        subBytes(q);
+        invAffine(q);
+    }
+
+    private static void invSubBytes(long[] q, long[] p) {
+        invAffine(q);
+        invAffine(p);
+        subBytes(q, p);
+        invAffine(q);
+        invAffine(p);
+    }
+
+    private static void invAffine(long[] q) {
+        // xor 0x63 (bits 0, 1, 5, 6), then bit i = b(i+2) ^ b(i+5) ^ b(i+7)
+        long b0 = ~q[0], b1 = ~q[1], b2 = q[2], b3 = q[3], b4 = q[4], b5 = ~q[5], b6 = ~q[6], b7 = q[7];
+        q[0] = b2 ^ b5 ^ b7;
+        q[1] = b3 ^ b6 ^ b0;
+        q[2] = b4 ^ b7 ^ b1;
+        q[3] = b5 ^ b0 ^ b2;
+        q[4] = b6 ^ b1 ^ b3;
+        q[5] = b7 ^ b2 ^ b4;
+        q[6] = b0 ^ b3 ^ b5;
+        q[7] = b1 ^ b4 ^ b6;
+    }
+}
@@ -1,8 +1,5 @@
 // Crypto.java
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.math.BigInteger;
-import java.util.Scanner;
 
 /**
  * <h1>Crypto</h1>
@@ -12,9 +9,38 @@ public class Crypto {
     private static final BigInteger ONE = BigInteger.ONE;
     private static final BigInteger ZERO = BigInteger.ZERO;
     private static final BigInteger TWO = BigInteger.valueOf(2);
+    // below this the candidates are too close to the small primes for the sieve to apply
+    static final int SIEVE_MIN_BITS = 32;
+
+    // odd moduli at least this large go through the Montgomery engine
+    static final int MONTGOMERY_MIN_BITS = 64;
 
     /** Fast modular exponentiation (g^a mod p). */
     public static BigInteger fastMod(BigInteger g, BigInteger a, BigInteger p) {
+        record(a, p);
+        if (a.signum() <= 0) return ONE;
+        if (p.testBit(0) && p.bitLength() >= MONTGOMERY_MIN_BITS) {
+            return new Montgomery(p).modPow(g, a);
+        }
+        return fastModPlain(g, a, p);
+    }
+
+    /** g^a mod ctx's modulus, reusing a per-modulus Montgomery context. */
+    public static BigInteger fastMod(BigInteger g, BigInteger a, Montgomery ctx) {
+        record(a, ctx.getModulus());
+        if (a.signum() <= 0) return ONE;
+        return ctx.modPow(g, a);
+    }
+
+    private static void record(BigInteger a, BigInteger p) {
+        if (!Metrics.ENABLED) return;
+        Metrics.count(Metrics.Counter.FASTMOD_CALLS);
+        Metrics.record(Metrics.Histogram.FASTMOD_MODULUS_BITS, p.bitLength());
+        Metrics.record(Metrics.Histogram.FASTMOD_EXPONENT_BITS, a.bitLength());
+    }
+
+    /** Right-to-left square-and-multiply with a full reduction per step; any modulus. */
+    public static BigInteger fastModPlain(BigInteger g, BigInteger a, BigInteger p) {
         BigInteger result = ONE;
         BigInteger base   = g.mod(p);
         BigInteger exp    = a;
@@ -48,36 +74,39 @@ public class Crypto {
 
     /** Random BigInteger with bitLength in (minBits, maxBits]. */
     public static BigInteger getRandom(int minBits, int maxBits) {
-        BigInteger r = new BigInteger(maxBits, Rand.getRand());
+        BigInteger r = Rand.randBigInteger(maxBits);
         while (r.bitLength() <= minBits) {
-            r = new BigInteger(maxBits, Rand.getRand());
+            r = Rand.randBigInteger(maxBits);
         }
         return r;
     }
 
     /** Trial division + Fermat + Miller–Rabin primality test. */
     public static boolean checkPrime(BigInteger p, int numChecks) {
+        Metrics.count(Metrics.Counter.PRIME_CANDIDATES);
         if (p.compareTo(TWO) < 0)    return false;
         if (p.equals(TWO))           return true;
-        if (p.mod(TWO).equals(ZERO)) return false;
-
-        // trial division
-        try (Scanner scan = new Scanner(new File("primes.txt"))) {
-            while (scan.hasNext()) {
-                BigInteger b = new BigInteger(scan.nextLine());
-                if (p.mod(b).equals(ZERO)) {
-                    return false;
-                }
-            }
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
+        // trial division by 2 and then the in-memory small-prime table; one snapshot for both
+        // checks, so a concurrent setCount can't make coversSqrt vouch for primes never tried
+        SmallPrimes.Table table = SmallPrimes.snapshot();
+        if (!p.testBit(0) || table.hasSmallFactor(p)) {
+            Metrics.count(Metrics.Counter.PRIME_REJECTED_TRIAL_DIVISION);
+            return false;
         }
+        if (table.coversSqrt(p)) return true;  // no factor up to sqrt(p)
 
+        return probablePrime(p, numChecks);
+    }
+
+    /** Fermat + Miller–Rabin rounds only; p must be odd and larger than the small-prime table. */
+    static boolean probablePrime(BigInteger p, int numChecks) {
         BigInteger pm = p.subtract(ONE);
+        Montgomery ctx = new Montgomery(p);   // one context for every round
         // Fermat tests
         for (int i = 0; i < numChecks; i++) {
             BigInteger a = getRandom(1, p.bitLength() - 1);
-            if (!fastMod(a, pm, p).equals(ONE)) {
+            if (!fastMod(a, pm, ctx).equals(ONE)) {
+                Metrics.count(Metrics.Counter.PRIME_REJECTED_FERMAT);
                 return false;
             }
         }
@@ -91,7 +120,7 @@ public class Crypto {
         }
         for (int i = 0; i < numChecks; i++) {
             BigInteger a = getRandom(1, p.bitLength() - 1);
-            BigInteger x = fastMod(a, d, p);
+            BigInteger x = fastMod(a, d, ctx);
             if (x.equals(ONE) || x.equals(pm)) continue;
             boolean passed = false;
             for (int r = 1; r < s; r++) {
@@ -101,13 +130,23 @@ public class Crypto {
                     break;
                 }
             }
-            if (!passed) return false;
+            if (!passed) {
+                Metrics.count(Metrics.Counter.PRIME_REJECTED_MILLER_RABIN);
+                return false;
+            }
         }
+        Metrics.count(Metrics.Counter.PRIME_PASSED);
         return true;
     }
 
-    /** Generate a prime in (minBits, maxBits] via checkPrime. */
+    /**
+     * Generate a prime in (minBits, maxBits]; from SIEVE_MIN_BITS up this uses the incremental
+     * sieve, and an interrupt throws IllegalStateException (interrupt flag kept).
+     */
     public static BigInteger getPrime(int minBits, int maxBits, int numChecks) {
+        if (minBits >= SIEVE_MIN_BITS) {
+            return sieve(minBits, maxBits, false, numChecks);
+        }
         BigInteger p = getRandom(minBits, maxBits);
         while (!checkPrime(p, numChecks)) {
             p = getRandom(minBits, maxBits);
@@ -117,13 +156,28 @@ public class Crypto {
 
     /** Generate a safe prime p = 2q+1 where q is prime. */
     public static BigInteger getSafePrime() {
+        return getSafePrime(2049, 3073, 10);
+    }
+
+    /** Generate a safe prime p = 2q+1 with p in (minBits, maxBits], sieving q and p together. */
+    public static BigInteger getSafePrime(int minBits, int maxBits, int numChecks) {
+        if (minBits - 1 >= SIEVE_MIN_BITS) {
+            return sieve(minBits, maxBits, true, numChecks);
+        }
         while (true) {
-            BigInteger q = getPrime(2048, 3072, 10);
+            BigInteger q = getPrime(minBits - 1, maxBits - 1, numChecks);
             BigInteger p = q.multiply(TWO).add(ONE);
-            if (checkPrime(p, 10)) return p;
+            if (checkPrime(p, numChecks)) return p;
         }
     }
 
+    /** PrimeSieve.find, but never null: an interrupt ends the search with the flag still set. */
+    private static BigInteger sieve(int minBits, int maxBits, boolean safe, int numChecks) {
+        BigInteger p = new PrimeSieve(minBits, maxBits, safe).find(numChecks);
+        if (p == null) throw new IllegalStateException("Prime search interrupted");
+        return p;
+    }
+
     /** Extended Euclidean algorithm; returns [gcd, x, y] for ax+by=gcd. */
     public static BigInteger[] extendedGCD(BigInteger a, BigInteger b) {
         if (b.equals(ZERO)) {
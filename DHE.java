@@ -4,20 +4,47 @@ import java.util.Random;
 public class DHE {
     private final BigInteger prime;
     private final BigInteger generator;
+    private final Montgomery ctx;         // exponentiation context for prime
+    private volatile FixedBase fixedBase; // optional precomputed powers of generator
+    private volatile Boolean primeOrder;  // generator lies in the order-q subgroup, q = (p-1)/2
 
     public DHE(int gBits, int pBits) {
+        this(gBits, pBits, 1);
+    }
+
+    /** With threads > 1, the safe prime is searched for on that many worker threads. */
+    public DHE(int gBits, int pBits, int threads) {
+        this(generateGroup(gBits, pBits, threads));
+    }
+
+    /** Use existing parameters, e.g. DHGroup.MODP_2048 or a group from a DHParamStore. */
+    public DHE(DHGroup group) {
+        this.prime = group.prime;
+        this.generator = group.generator;
+        this.ctx = new Montgomery(prime);
+    }
+
+    public DHE(BigInteger prime, BigInteger generator) {
+        this(new DHGroup(prime, generator));
+    }
+
+    /** DHE over the RFC 3526 MODP group with a bits-bit prime. */
+    public static DHE modp(int bits) {
+        return new DHE(DHGroup.modp(bits));
+    }
+
+    /** Generate a fresh safe prime and generator, printing progress. */
+    public static DHGroup generateGroup(int gBits, int pBits, int threads) {
         System.out.printf("→ Generating a %d-bit safe prime…%n", pBits);
-        BigInteger two = BigInteger.valueOf(2), q, pCand;
-        do {
-            q = Crypto.getPrime(pBits - 1, pBits - 1, 5);
-            pCand = q.multiply(two).add(BigInteger.ONE);
-        } while (!Crypto.checkPrime(pCand, 5));
-        this.prime = pCand;
+        BigInteger prime = threads > 1
+                ? ParallelPrimeSearch.getSafePrime(pBits - 1, pBits, 5, threads)
+                : Crypto.getSafePrime(pBits - 1, pBits, 5);
         System.out.println("✔ Safe prime ready." + prime);
 
         System.out.printf("→ Finding a generator (hint bits=%d)…%n", gBits);
-        this.generator = Crypto.getGenerator(gBits, prime);
+        BigInteger generator = Crypto.getGenerator(gBits, prime);
         System.out.println("✔ Generator found.");
+        return new DHGroup(prime, generator);
     }
 
     public static BigInteger getPrime(int minBits, int maxBits, int numChecks) {
@@ -31,20 +58,63 @@ public class DHE {
         return generator;
     }
 
+    public DHGroup getGroup() {
+        return new DHGroup(prime, generator);
+    }
+
     public BigInteger getBase(int bits) {
         BigInteger priv;
         do {
-            priv = Crypto.getRandom(bits, bits);
+            priv = Crypto.getRandom(bits - 1, bits);
         } while (priv.compareTo(BigInteger.ONE) < 0 || priv.compareTo(prime) >= 0);
         return priv;
     }
 
+    /**
+     * Precompute powers of the generator (within memoryBudget bytes) so getExponent needs no
+     * squarings. Pays off when one instance produces many public values.
+     */
+    public void enableFixedBase(long memoryBudget) {
+        fixedBase = new FixedBase(ctx, generator, prime.bitLength(), memoryBudget);
+    }
+
+    public void disableFixedBase() {
+        fixedBase = null;
+    }
+
+    public FixedBase getFixedBase() {
+        return fixedBase;
+    }
+
     public BigInteger getExponent(BigInteger priv) {
-        return Crypto.fastMod(generator, priv, prime);
+        long t0 = Metrics.start();
+        FixedBase fb = fixedBase;
+        BigInteger pub = fb != null && priv.signum() > 0 ? fb.pow(priv) : Crypto.fastMod(generator, priv, ctx);
+        Metrics.stop(Metrics.Histogram.DHE_PUBLIC_VALUE, t0);
+        return pub;
+    }
+
+    /**
+     * Reject a peer's public value that is out of range (0, 1 or p-1 force a known shared
+     * key) or, when the generator has prime order q, outside the order-q subgroup.
+     */
+    public void validatePublic(BigInteger y) {
+        BigInteger pMinus1 = prime.subtract(BigInteger.ONE);
+        if (y.compareTo(BigInteger.ONE) <= 0 || y.compareTo(pMinus1) >= 0) {
+            throw new IllegalArgumentException("DH public value out of range (1, p-1)");
+        }
+        BigInteger q = pMinus1.shiftRight(1);
+        if (primeOrder == null) primeOrder = ctx.modPow(generator, q).equals(BigInteger.ONE);
+        if (primeOrder && !ctx.modPow(y, q).equals(BigInteger.ONE)) {
+            throw new IllegalArgumentException("DH public value not in the prime-order subgroup");
+        }
     }
 
     public BigInteger getKey(BigInteger priv, BigInteger otherPub) {
-        return Crypto.fastMod(otherPub, priv, prime);
+        long t0 = Metrics.start();
+        BigInteger key = Crypto.fastMod(otherPub, priv, ctx);
+        Metrics.stop(Metrics.Histogram.DHE_SHARED_KEY, t0);
+        return key;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,117 @@
+// DHKeyPool.java
+import java.math.BigInteger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>DHKeyPool</h1>
+ * <p>Pool of precomputed ephemeral (private, public) DH pairs, refilled by a background
+ * thread. When the pool drops below the low watermark the refiller wakes and generates pairs
+ * until it holds the high watermark. Each pair is handed out once; an empty pool falls back
+ * to generating a pair on the caller's thread.</p>
+ */
+public class DHKeyPool implements AutoCloseable {
+
+    /** One ephemeral key pair. */
+    public static final class KeyPair {
+        public final BigInteger priv;
+        public final BigInteger pub;
+
+        KeyPair(BigInteger priv, BigInteger pub) {
+            this.priv = priv;
+            this.pub = pub;
+        }
+    }
+
+    private final DHE dhe;
+    private final int privBits;
+    private final int low, high;
+    private final BlockingQueue<KeyPair> pool;
+    private final Object signal = new Object();
+    private final Thread refiller;
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), generated = new LongAdder();
+    private volatile boolean closed;
+
+    /** Start refilling a pool of privBits-bit private keys between low and high pairs. */
+    public DHKeyPool(DHE dhe, int privBits, int low, int high) {
+        if (low < 0 || high < 1 || low > high) {
+            throw new IllegalArgumentException("Watermarks must satisfy 0 <= low <= high, high >= 1");
+        }
+        this.dhe = dhe;
+        this.privBits = privBits;
+        this.low = low;
+        this.high = high;
+        this.pool = new ArrayBlockingQueue<>(high);
+        this.refiller = new Thread(this::refill, "dh-key-pool");
+        refiller.setDaemon(true);
+        refiller.start();
+    }
+
+    private KeyPair generate() {
+        BigInteger priv = dhe.getBase(privBits);
+        KeyPair k = new KeyPair(priv, dhe.getExponent(priv));
+        generated.increment();
+        return k;
+    }
+
+    private void refill() {
+        try {
+            while (!closed) {
+                synchronized (signal) {
+                    while (!closed && pool.size() > low) signal.wait();
+                }
+                while (!closed && pool.size() < high) pool.offer(generate());
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /** A fresh pair: from the pool if one is ready, otherwise generated now. */
+    public KeyPair take() {
+        KeyPair k = pool.poll();
+        if (pool.size() <= low) {
+            synchronized (signal) {
+                signal.notify();
+            }
+        }
+        if (k != null) {
+            hits.increment();
+            return k;
+        }
+        misses.increment();
+        return generate();
+    }
+
+    public DHE getDHE() {
+        return dhe;
+    }
+
+    /** Pairs ready now. */
+    public int size() {
+        return pool.size();
+    }
+
+    /** Pairs served from the pool, and pairs generated inline because it was empty. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** Pairs generated in total, by the refiller and inline. */
+    public long generated() {
+        return generated.sum();
+    }
+
+    /** Stop the refiller; take() keeps working by generating inline. */
+    @Override
+    public void close() {
+        closed = true;
+        refiller.interrupt();
+        pool.clear();
+    }
+}
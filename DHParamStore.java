@@ -0,0 +1,75 @@
+// DHParamStore.java
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <h1>DHParamStore</h1>
+ * <p>Local file of generated DH groups, one per prime size, so parameters are generated once
+ * and reloaded on every later start. Each line is <code>bits prime-hex generator-hex</code>;
+ * blank lines and lines starting with # are ignored.</p>
+ */
+public class DHParamStore {
+    private final Path file;
+    private final Map<Integer, DHGroup> groups = new TreeMap<>();
+
+    /** Open the store, loading any groups already saved in file. */
+    public DHParamStore(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) load();
+    }
+
+    private void load() throws IOException {
+        int lineNo = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] f = line.split("\\s+");
+            try {
+                if (f.length != 3) throw new IllegalArgumentException("expected 3 fields");
+                DHGroup g = new DHGroup(new BigInteger(f[1], 16), new BigInteger(f[2], 16));
+                if (g.bits() != Integer.parseInt(f[0])) throw new IllegalArgumentException("size mismatch");
+                groups.put(g.bits(), g);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + ":" + lineNo + ": bad DH parameters (" + e.getMessage() + ")", e);
+            }
+        }
+    }
+
+    /** Saved group with a bits-bit prime, or null. */
+    public synchronized DHGroup get(int bits) {
+        return groups.get(bits);
+    }
+
+    /** Save g (replacing any group of the same size) and rewrite the file atomically. */
+    public synchronized void put(DHGroup g) throws IOException {
+        groups.put(g.bits(), g);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write("# DH parameters: bits prime-hex generator-hex");
+            w.newLine();
+            for (DHGroup d : groups.values()) {
+                w.write(d.bits() + " " + d.prime.toString(16) + " " + d.generator.toString(16));
+                w.newLine();
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Saved group of this size, generating and saving one (on threads workers) if missing. */
+    public synchronized DHGroup getOrGenerate(int gBits, int pBits, int threads) throws IOException {
+        DHGroup g = groups.get(pBits);
+        if (g == null) {
+            g = DHE.generateGroup(gBits, pBits, threads);
+            put(g);
+        }
+        return g;
+    }
+}
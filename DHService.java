@@ -0,0 +1,167 @@
+// DHService.java
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>DHService</h1>
+ * <p>Concurrent key-agreement service: each request validates the peer's public value, takes
+ * a fresh ephemeral pair from a DHKeyPool and computes the shared key on a worker pool. Key
+ * generation is off the request path; what remains is the getKey modexp plus, for
+ * prime-order groups such as the MODP ones, validatePublic's q-bit subgroup-check modexp.
+ * Run main for a local load test.</p>
+ */
+public class DHService implements AutoCloseable {
+
+    /** Our side of one completed exchange. */
+    public static final class Exchange {
+        public final BigInteger ourPublic;
+        public final BigInteger sharedKey;
+
+        Exchange(BigInteger ourPublic, BigInteger sharedKey) {
+            this.ourPublic = ourPublic;
+            this.sharedKey = sharedKey;
+        }
+    }
+
+    /** Per-request callbacks; called on the worker thread, so keep them cheap. */
+    public interface Listener {
+        Listener NONE = new Listener() { };
+
+        default void agreed(long nanos) { }
+
+        default void rejected(BigInteger peerPublic, String reason) { }
+    }
+
+    private final DHKeyPool pool;
+    private final DHE dhe;
+    private final ExecutorService workers;
+    private final Listener listener;
+
+    public DHService(DHKeyPool pool, int threads) {
+        this(pool, threads, Listener.NONE);
+    }
+
+    public DHService(DHKeyPool pool, int threads, Listener listener) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+        this.pool = pool;
+        this.dhe = pool.getDHE();
+        this.listener = listener;
+        AtomicInteger n = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "dh-service-" + n.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Agree on the calling thread; throws IllegalArgumentException for a bad peer value. */
+    public Exchange agree(BigInteger peerPublic) {
+        long start = System.nanoTime();
+        try {
+            dhe.validatePublic(peerPublic);
+        } catch (IllegalArgumentException e) {
+            listener.rejected(peerPublic, e.getMessage());
+            throw e;
+        }
+        DHKeyPool.KeyPair k = pool.take();
+        Exchange x = new Exchange(k.pub, dhe.getKey(k.priv, peerPublic));
+        listener.agreed(System.nanoTime() - start);
+        return x;
+    }
+
+    /** Agree on a worker thread. */
+    public CompletableFuture<Exchange> submit(BigInteger peerPublic) {
+        return CompletableFuture.supplyAsync(() -> agree(peerPublic), workers);
+    }
+
+    public DHKeyPool getPool() {
+        return pool;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdown();
+        try {
+            workers.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Load test: DHService [groupBits requests threads poolLow poolHigh] */
+    public static void main(String[] args) throws Exception {
+        int bits     = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int threads  = args.length > 2 ? Integer.parseInt(args[2]) : ParallelPrimeSearch.defaultThreads();
+        int low      = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int high     = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+        int privBits = bits - 1;
+
+        DHE dhe = DHE.modp(bits);
+        dhe.enableFixedBase(16L << 20);
+
+        // client side, prepared before the clock starts
+        System.out.printf("Preparing %d client key pairs (%d-bit group)...%n", requests, bits);
+        BigInteger[] clientPriv = new BigInteger[requests], clientPub = new BigInteger[requests];
+        for (int i = 0; i < requests; i++) {
+            clientPriv[i] = dhe.getBase(privBits);
+            clientPub[i] = dhe.getExponent(clientPriv[i]);
+        }
+
+        long[] latencies = new long[requests];
+        AtomicInteger done = new AtomicInteger(), rejected = new AtomicInteger();
+        Listener m = new Listener() {
+            @Override
+            public void agreed(long nanos) {
+                latencies[done.getAndIncrement()] = nanos;
+            }
+
+            @Override
+            public void rejected(BigInteger peerPublic, String reason) {
+                rejected.incrementAndGet();
+            }
+        };
+
+        try (DHKeyPool pool = new DHKeyPool(dhe, privBits, low, high);
+             DHService svc = new DHService(pool, threads, m)) {
+            while (pool.size() < high) Thread.sleep(10);   // start from a full pool
+
+            long start = System.nanoTime();
+            List<CompletableFuture<Exchange>> futures = new ArrayList<>();
+            for (BigInteger pub : clientPub) futures.add(svc.submit(pub));
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            long elapsed = System.nanoTime() - start;
+
+            int mismatches = 0;
+            for (int i = 0; i < requests; i++) {
+                Exchange x = futures.get(i).get();
+                if (!dhe.getKey(clientPriv[i], x.ourPublic).equals(x.sharedKey)) mismatches++;
+            }
+            boolean badRejected;
+            try {
+                svc.agree(BigInteger.ONE);
+                badRejected = false;
+            } catch (IllegalArgumentException e) {
+                badRejected = true;
+            }
+
+            long[] lat = Arrays.copyOf(latencies, done.get());
+            Arrays.sort(lat);
+            System.out.printf("%d agreements on %d threads in %.1f ms: %.1f ops/s%n",
+                    requests, threads, elapsed / 1e6, requests / (elapsed / 1e9));
+            System.out.printf("latency p50=%.2f ms p99=%.2f ms max=%.2f ms%n",
+                    lat[lat.length / 2] / 1e6, lat[(int) (lat.length * 0.99)] / 1e6, lat[lat.length - 1] / 1e6);
+            System.out.printf("pool hits=%d misses=%d generated=%d%n", pool.hits(), pool.misses(), pool.generated());
+            System.out.printf("shared keys %s, invalid peer value %s (rejected=%d)%n",
+                    mismatches == 0 ? "match" : mismatches + " MISMATCHED",
+                    badRejected ? "rejected" : "ACCEPTED", rejected.get());
+        }
+    }
+}
@@ -0,0 +1,259 @@
+// Envelope.java
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+
+/**
+ * <h1>Envelope</h1>
+ * <p>Hybrid encryption for large payloads and many recipients. A random AES-256 session key
+ * is wrapped with RSA-OAEP to every recipient's public key (in parallel on the common
+ * ForkJoinPool), and the body is streamed through AES-GCM in fixed-size chunks, so memory use
+ * is constant whatever the payload size and RSA never touches the payload.</p>
+ *
+ * <pre>
+ *   header: "RSAE" | version (1) | chunk size (4) | nonce prefix (8) | recipient count (2)
+ *           per recipient: key fingerprint (32) | wrapped key length (2) | wrapped key
+ *   body:   per chunk: last flag (1) | length (4) | ciphertext | GCM tag (16)
+ * </pre>
+ *
+ * <p>Chunk i is sealed with IV = nonce prefix || i and AAD = SHA-256(header) || last flag,
+ * so chunks can't be reordered, dropped, truncated away or moved between envelopes, and the
+ * recipient list can't be altered. open() writes each chunk only after its tag checks out;
+ * a later bad chunk still fails the whole call.</p>
+ */
+public final class Envelope {
+    public static final int CHUNK = 64 << 10;
+    static final int KEY_BYTES = 32;
+    private static final int MAGIC = 0x52534145;   // "RSAE"
+    private static final int VERSION = 1;
+    private static final int WRAP_LEAF = 4;        // recipients per fork-join leaf
+
+    private Envelope() {
+    }
+
+    /** Encrypt in to out for every public key {e, n} in recipients (as from RSA.getPublicKey()). */
+    public static void seal(InputStream in, OutputStream out, List<BigInteger[]> recipients) throws IOException {
+        if (recipients.isEmpty()) throw new IllegalArgumentException("no recipients");
+        if (recipients.size() > 0xFFFF) throw new IllegalArgumentException("too many recipients");
+        byte[] key = new byte[KEY_BYTES], prefix = new byte[8];
+        Rand.nextBytes(key);
+        Rand.nextBytes(prefix);
+        byte[][] wrapped = wrapAll(key, recipients);
+
+        ByteArrayOutputStream hb = new ByteArrayOutputStream();
+        DataOutputStream h = new DataOutputStream(hb);
+        h.writeInt(MAGIC);
+        h.writeByte(VERSION);
+        h.writeInt(CHUNK);
+        h.write(prefix);
+        h.writeShort(recipients.size());
+        for (int i = 0; i < wrapped.length; i++) {
+            h.write(fingerprint(recipients.get(i)));
+            h.writeShort(wrapped[i].length);
+            h.write(wrapped[i]);
+        }
+        byte[] header = hb.toByteArray();
+        out.write(header);
+
+        AESGCM gcm = new AESGCM(key);
+        Arrays.fill(key, (byte) 0);
+        byte[] aad = aad(header);
+        byte[] buf = new byte[CHUNK], ct = new byte[CHUNK + AESGCM.TAG_LENGTH];
+        DataOutputStream body = new DataOutputStream(out);
+        // a short read marks the last chunk; a payload that is a multiple of CHUNK ends with an empty one
+        for (int i = 0; ; i++) {
+            int n = in.readNBytes(buf, 0, CHUNK);
+            boolean last = n < CHUNK;
+            aad[aad.length - 1] = (byte) (last ? 1 : 0);
+            AESGCM.Stream s = gcm.encryptor(chunkIv(prefix, i));
+            s.updateAAD(aad, 0, aad.length);
+            s.update(buf, 0, n, ct, 0);
+            System.arraycopy(s.finish(), 0, ct, n, AESGCM.TAG_LENGTH);
+            body.writeByte(last ? 1 : 0);
+            body.writeInt(n);
+            body.write(ct, 0, n + AESGCM.TAG_LENGTH);
+            if (last) break;
+        }
+        body.flush();
+    }
+
+    /**
+     * Decrypt an envelope addressed to recipient into out. Throws IOException if recipient is
+     * not among the addressees or the envelope was tampered with or cut short.
+     */
+    public static void open(InputStream in, OutputStream out, RSA recipient) throws IOException {
+        DataInputStream din = new DataInputStream(in);
+        ByteArrayOutputStream hb = new ByteArrayOutputStream();
+        DataOutputStream copy = new DataOutputStream(hb);
+        if (din.readInt() != MAGIC || din.readUnsignedByte() != VERSION) throw new IOException("Not an envelope");
+        copy.writeInt(MAGIC);
+        copy.writeByte(VERSION);
+        int chunk = din.readInt();
+        if (chunk < 1 || chunk > 1 << 24) throw new IOException("Bad envelope chunk size " + chunk);
+        copy.writeInt(chunk);
+        byte[] prefix = readFully(din, 8);
+        copy.write(prefix);
+        int count = din.readUnsignedShort();
+        copy.writeShort(count);
+        byte[] mine = fingerprint(recipient.getPublicKey()), wrapped = null;
+        for (int i = 0; i < count; i++) {
+            byte[] fp = readFully(din, 32);
+            byte[] w = readFully(din, din.readUnsignedShort());
+            copy.write(fp);
+            copy.writeShort(w.length);
+            copy.write(w);
+            if (wrapped == null && MessageDigest.isEqual(fp, mine)) wrapped = w;
+        }
+        if (wrapped == null) throw new IOException("Envelope is not addressed to this key");
+        byte[] key;
+        try {
+            key = recipient.unwrap(wrapped);
+        } catch (BadPaddingException e) {
+            throw new IOException("Cannot unwrap the envelope key", e);
+        }
+        if (key.length != KEY_BYTES) throw new IOException("Cannot unwrap the envelope key");
+
+        AESGCM gcm = new AESGCM(key);
+        Arrays.fill(key, (byte) 0);
+        byte[] aad = aad(hb.toByteArray());
+        byte[] ct = new byte[chunk + AESGCM.TAG_LENGTH], pt = new byte[chunk];
+        for (int i = 0; ; i++) {
+            int flag = din.read();
+            if (flag < 0) throw new IOException("Envelope is truncated");
+            int n = din.readInt();
+            if (flag > 1 || n < 0 || n > chunk || (flag == 0 && n != chunk)) throw new IOException("Bad envelope chunk " + i);
+            din.readFully(ct, 0, n + AESGCM.TAG_LENGTH);
+            aad[aad.length - 1] = (byte) flag;
+            AESGCM.Stream s = gcm.decryptor(chunkIv(prefix, i));
+            s.updateAAD(aad, 0, aad.length);
+            s.update(ct, 0, n, pt, 0);
+            try {
+                s.verify(Arrays.copyOfRange(ct, n, n + AESGCM.TAG_LENGTH));
+            } catch (AEADBadTagException e) {
+                throw new IOException("Envelope chunk " + i + " failed authentication", e);
+            }
+            out.write(pt, 0, n);
+            if (flag == 1) break;
+        }
+        out.flush();
+    }
+
+    /** RSA-OAEP wrap one key to each recipient, in parallel; result i belongs to recipient i. */
+    public static byte[][] wrapAll(byte[] key, List<BigInteger[]> recipients) {
+        byte[][] out = new byte[recipients.size()][];
+        BigInteger[][] keys = recipients.toArray(new BigInteger[0][]);
+        if (keys.length <= WRAP_LEAF) {
+            new WrapTask(key, keys, out, 0, keys.length).compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(new WrapTask(key, keys, out, 0, keys.length));
+        }
+        return out;
+    }
+
+    /** Fork-join task that wraps the key for recipients [from, to). */
+    private static final class WrapTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;   // never serialized
+
+        private final byte[] key;
+        private final BigInteger[][] keys;
+        private final byte[][] out;
+        private final int from, to;
+
+        WrapTask(byte[] key, BigInteger[][] keys, byte[][] out, int from, int to) {
+            this.key = key;
+            this.keys = keys;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= WRAP_LEAF) {
+                for (int i = from; i < to; i++) out[i] = RSA.wrap(key, keys[i][0], keys[i][1]);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new WrapTask(key, keys, out, from, mid), new WrapTask(key, keys, out, mid, to));
+        }
+    }
+
+    /** SHA-256 over the length-prefixed e and n, identifying a recipient's key. */
+    public static byte[] fingerprint(BigInteger[] publicKey) {
+        MessageDigest md = RSA.sha256();
+        for (BigInteger v : publicKey) {
+            byte[] b = v.toByteArray();
+            md.update(new byte[]{(byte)(b.length >>> 24), (byte)(b.length >>> 16), (byte)(b.length >>> 8), (byte) b.length});
+            md.update(b);
+        }
+        return md.digest();
+    }
+
+    /** SHA-256(header) followed by a slot for the last-chunk flag. */
+    private static byte[] aad(byte[] header) {
+        return Arrays.copyOf(RSA.sha256().digest(header), 33);
+    }
+
+    private static byte[] chunkIv(byte[] prefix, int i) {
+        byte[] iv = Arrays.copyOf(prefix, AESGCM.IV_LENGTH);
+        iv[8] = (byte)(i >>> 24);
+        iv[9] = (byte)(i >>> 16);
+        iv[10] = (byte)(i >>> 8);
+        iv[11] = (byte) i;
+        return iv;
+    }
+
+    private static byte[] readFully(DataInputStream in, int n) throws IOException {
+        byte[] b = new byte[n];
+        in.readFully(b);
+        return b;
+    }
+
+    /** Demo: seal a random payload to several recipients and open it as each of them. */
+    public static void main(String[] args) throws IOException {
+        int recipients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int mib = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        List<RSA> keys = new ArrayList<>();
+        List<BigInteger[]> publicKeys = new ArrayList<>();
+        for (int i = 0; i < recipients; i++) {
+            RSA r = new RSA(2048);
+            keys.add(r);
+            publicKeys.add(r.getPublicKey());
+        }
+        byte[] payload = new byte[mib << 20];
+        Rand.nextBytes(payload);
+        ByteArrayOutputStream sealed = new ByteArrayOutputStream(payload.length + (1 << 16));
+        long t = System.nanoTime();
+        seal(new ByteArrayInputStream(payload), sealed, publicKeys);
+        System.out.printf("sealed %d MiB to %d recipients in %.1f ms (%d bytes)%n",
+                mib, recipients, (System.nanoTime() - t) / 1e6, sealed.size());
+        for (RSA r : keys) {
+            ByteArrayOutputStream opened = new ByteArrayOutputStream(payload.length);
+            t = System.nanoTime();
+            open(new ByteArrayInputStream(sealed.toByteArray()), opened, r);
+            System.out.printf("opened in %.1f ms, intact: %b%n",
+                    (System.nanoTime() - t) / 1e6, Arrays.equals(opened.toByteArray(), payload));
+        }
+        byte[] bad = sealed.toByteArray();
+        bad[bad.length - 20] ^= 1;
+        try {
+            open(new ByteArrayInputStream(bad), OutputStream.nullOutputStream(), keys.get(0));
+            System.out.println("tampering NOT detected");
+        } catch (IOException e) {
+            System.out.println("tampering detected: " + e.getMessage());
+        }
+    }
+}
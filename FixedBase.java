@@ -0,0 +1,93 @@
+// FixedBase.java
+import java.math.BigInteger;
+
+/**
+ * <h1>FixedBase</h1>
+ * <p>Fixed-base exponentiation with a precomputed fixed-window table: for every w-bit digit
+ * position i it stores g^(d * 2^(w*i)) for d = 1 .. 2^w - 1, all in Montgomery form. A power
+ * then costs one multiplication per non-zero digit and no squarings. The window w is the
+ * largest that keeps the table inside the given memory budget.</p>
+ */
+public final class FixedBase {
+    private final Montgomery ctx;
+    private final BigInteger base;
+    private final int maxBits;     // exponents up to this many bits use the table
+    private final int w;           // window width in bits
+    private final int[][][] table; // table[i][d-1] = g^(d * 2^(w*i))
+
+    /** Precompute powers of base for exponents of up to maxBits bits within memoryBudget bytes. */
+    public FixedBase(Montgomery ctx, BigInteger base, int maxBits, long memoryBudget) {
+        this.ctx = ctx;
+        this.base = base;
+        this.maxBits = maxBits;
+        this.w = chooseWindow(maxBits, ctx.limbs(), memoryBudget);
+        if (w == 0) {
+            throw new IllegalArgumentException("Memory budget of " + memoryBudget
+                    + " bytes is too small for a " + maxBits + "-bit fixed-base table");
+        }
+
+        long[] t = ctx.scratch();
+        int rows = (maxBits + w - 1) / w;
+        int perRow = (1 << w) - 1;
+        table = new int[rows][perRow][];
+        int[] rowBase = ctx.toMont(base, t);
+        for (int i = 0; i < rows; i++) {
+            int[][] row = table[i];
+            row[0] = rowBase;
+            for (int d = 1; d < perRow; d++) {
+                row[d] = new int[ctx.limbs()];
+                ctx.mul(row[d - 1], rowBase, row[d], t);
+            }
+            // next row's base: g^(2^(w*(i+1))) = row[2^w - 2] * rowBase
+            if (i + 1 < rows) {
+                int[] next = new int[ctx.limbs()];
+                ctx.mul(row[perRow - 1], rowBase, next, t);
+                rowBase = next;
+            }
+        }
+    }
+
+    /** Largest window (up to 8 bits) whose table fits the budget, or 0 if none does. */
+    static int chooseWindow(int maxBits, int limbs, long memoryBudget) {
+        for (int w = 8; w >= 1; w--) {
+            if (tableBytes(maxBits, limbs, w) <= memoryBudget) return w;
+        }
+        return 0;
+    }
+
+    /** Approximate table size in bytes for a given window. */
+    static long tableBytes(int maxBits, int limbs, int w) {
+        long rows = (maxBits + w - 1) / w;
+        return rows * ((1L << w) - 1) * (4L * limbs + 16);   // limbs plus array header
+    }
+
+    public int getWindowBits() {
+        return w;
+    }
+
+    public long getTableBytes() {
+        return tableBytes(maxBits, ctx.limbs(), w);
+    }
+
+    /** base^e mod the context's modulus. */
+    public BigInteger pow(BigInteger e) {
+        if (e.signum() <= 0) return BigInteger.ONE;
+        if (e.bitLength() > maxBits) return ctx.modPow(base, e);
+        long[] t = ctx.scratch();
+        int[] acc = null;
+        int rows = (e.bitLength() + w - 1) / w;
+        for (int i = 0; i < rows; i++) {
+            int d = 0;
+            for (int b = w - 1; b >= 0; b--) {
+                d = (d << 1) | (e.testBit(i * w + b) ? 1 : 0);
+            }
+            if (d == 0) continue;
+            if (acc == null) {
+                acc = table[i][d - 1].clone();
+            } else {
+                ctx.mul(acc, table[i][d - 1], acc, t);
+            }
+        }
+        return ctx.fromMont(acc, t);
+    }
+}
@@ -0,0 +1,116 @@
+// GHash.java
+
+/**
+ * <h1>GHash</h1>
+ * <p>GCM's universal hash over GF(2^128), using Shoup's 4-bit method: sixteen precomputed
+ * multiples of H per key, so each multiplication is 32 table lookups and shifts instead of
+ * 128 conditional XORs. The tables depend on H, so lookups are key-dependent memory
+ * accesses (the usual trade-off of table-driven GHASH).</p>
+ */
+final class GHash {
+    // reduction constants for the 4 bits shifted out per step, in the top 16 bits of zh
+    private static final long[] LAST4 = {
+        0x0000, 0x1c20, 0x3840, 0x2460, 0x7080, 0x6ca0, 0x48c0, 0x54e0,
+        0xe100, 0xfd20, 0xd940, 0xc560, 0x9180, 0x8da0, 0xa9c0, 0xb5e0
+    };
+
+    private final long[] hh = new long[16], hl = new long[16];   // i * H, high and low halves
+    private long zh, zl;                                         // running hash value
+    private final byte[] buf = new byte[16];                     // partial input block
+    private int bufLen;
+
+    /** h is the 16-byte hash key E(K, 0^128). */
+    GHash(byte[] h) {
+        long vh = getLong(h, 0), vl = getLong(h, 8);
+        hh[8] = vh;
+        hl[8] = vl;
+        for (int i = 4; i > 0; i >>= 1) {
+            // multiply by x: shift right one bit (GCM bit order), reduce by 0xE1 << 120
+            long t = (vl & 1) * 0xE100000000000000L;
+            vl = (vh << 63) | (vl >>> 1);
+            vh = (vh >>> 1) ^ t;
+            hh[i] = vh;
+            hl[i] = vl;
+        }
+        for (int i = 2; i <= 8; i *= 2) {
+            for (int j = 1; j < i; j++) {
+                hh[i + j] = hh[i] ^ hh[j];
+                hl[i + j] = hl[i] ^ hl[j];
+            }
+        }
+    }
+
+    /** Hash len bytes, carrying a partial block over to the next call. */
+    void update(byte[] b, int off, int len) {
+        if (bufLen > 0) {
+            int n = Math.min(len, 16 - bufLen);
+            System.arraycopy(b, off, buf, bufLen, n);
+            bufLen += n;
+            off += n;
+            len -= n;
+            if (bufLen < 16) return;
+            absorb(getLong(buf, 0), getLong(buf, 8));
+            bufLen = 0;
+        }
+        for (; len >= 16; off += 16, len -= 16) {
+            absorb(getLong(b, off), getLong(b, off + 8));
+        }
+        if (len > 0) {
+            System.arraycopy(b, off, buf, 0, len);
+            bufLen = len;
+        }
+    }
+
+    /** Zero-pad and absorb any partial block (between the AAD and the ciphertext). */
+    void pad() {
+        if (bufLen == 0) return;
+        for (int i = bufLen; i < 16; i++) buf[i] = 0;
+        absorb(getLong(buf, 0), getLong(buf, 8));
+        bufLen = 0;
+    }
+
+    /** Pad, absorb the length block [aadBits, dataBits] and return the hash. */
+    byte[] digest(long aadBits, long dataBits) {
+        pad();
+        absorb(aadBits, dataBits);
+        byte[] out = new byte[16];
+        putLong(out, 0, zh);
+        putLong(out, 8, zl);
+        return out;
+    }
+
+    /** Z = (Z ^ X) * H. */
+    private void absorb(long xh, long xl) {
+        long ah = zh ^ xh, al = zl ^ xl;
+        // Horner over the 32 nibbles of X from the least significant end: Z = Z/x^4 + n*H
+        int n = (int) al & 0xF;
+        long h = hh[n], l = hl[n];
+        for (int s = 4; s < 64; s += 4) {
+            int rem = (int) l & 0xF;
+            n = (int) (al >>> s) & 0xF;
+            l = ((h << 60) | (l >>> 4)) ^ hl[n];
+            h = (h >>> 4) ^ (LAST4[rem] << 48) ^ hh[n];
+        }
+        for (int s = 0; s < 64; s += 4) {
+            int rem = (int) l & 0xF;
+            n = (int) (ah >>> s) & 0xF;
+            l = ((h << 60) | (l >>> 4)) ^ hl[n];
+            h = (h >>> 4) ^ (LAST4[rem] << 48) ^ hh[n];
+        }
+        zh = h;
+        zl = l;
+    }
+
+    static long getLong(byte[] b, int off) {
+        long v = 0;
+        for (int i = 0; i < 8; i++) v = (v << 8) | (b[off + i] & 0xFF);
+        return v;
+    }
+
+    static void putLong(byte[] b, int off, long v) {
+        for (int i = 7; i >= 0; i--) {
+            b[off + i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+// KeyCache.java
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>KeyCache</h1>
+ * <p>Thread-safe, bounded LRU cache of expanded AES key schedules keyed by the raw key bytes.
+ * A hit returns the shared KeySchedule, so building an AES for a repeated key costs a
+ * lookup instead of a key expansion.</p>
+ */
+public class KeyCache {
+    private final int capacity;
+    private final LinkedHashMap<ByteBuffer, KeySchedule> map;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public KeyCache(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.capacity = capacity;
+        this.map = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, KeySchedule> eldest) {
+                if (size() > KeyCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** Expanded schedule for key, expanding and caching it on a miss. */
+    public KeySchedule get(byte[] key) {
+        byte[] copy = key.clone();   // map key and schedule come from the same bytes
+        ByteBuffer k = ByteBuffer.wrap(copy);
+        synchronized (map) {
+            KeySchedule ks = map.get(k);
+            if (ks != null) {
+                hits.increment();
+                return ks;
+            }
+        }
+        misses.increment();
+        // expand outside the lock; a racing miss on the same key just does the work twice
+        KeySchedule ks = KeySchedule.expand(copy);
+        synchronized (map) {
+            KeySchedule prev = map.putIfAbsent(k, ks);
+            return prev != null ? prev : ks;
+        }
+    }
+
+    /** AES instance backed by the cached schedule for key. */
+    public AES aes(byte[] key) {
+        return new AES(get(key));
+    }
+
+    /** AES instance for a String key, encoded as in new AES(String). */
+    public AES aes(String key) {
+        return aes(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (map) {
+            map.clear();
+        }
+    }
+}
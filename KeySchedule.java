@@ -0,0 +1,75 @@
+// KeySchedule.java
+
+/**
+ * <h1>KeySchedule</h1>
+ * <p>Expanded AES round keys in a flat layout: one 32-bit column word per entry, four per
+ * round. Holds both the encryption keys and the equivalent-inverse-cipher decryption keys.
+ * Immutable, so one instance can back any number of AES objects on any thread.</p>
+ */
+public final class KeySchedule {
+    private static final int Nb = 4;
+    private static final int[] RC = {0x00, 0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80, 0x1B, 0x36};
+
+    final int Nk;     // key length in words
+    final int Nr;     // number of rounds
+    final int[] ek;   // encryption round keys, ek[round*Nb + col]
+    final int[] dk;   // decryption round keys, in the order the inverse cipher uses them
+
+    private KeySchedule(int Nk, int[] ek, int[] dk) {
+        this.Nk = Nk;
+        this.Nr = Nk + 6;
+        this.ek = ek;
+        this.dk = dk;
+    }
+
+    /** Expand a 16, 24 or 32 byte key. */
+    public static KeySchedule expand(byte[] key) {
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("AES key must be 16, 24 or 32 bytes, got " + key.length);
+        }
+        Metrics.count(Metrics.Counter.AES_KEY_EXPANSIONS);
+        int Nk = key.length / 4;
+        int Nr = Nk + 6;
+        int totalWords = Nb*(Nr+1);
+        int[] w = new int[totalWords];
+        // initial key copy
+        for (int i=0; i<Nk; i++) {
+            w[i] = ((key[4*i]&0xFF)<<24) | ((key[4*i+1]&0xFF)<<16)
+                    | ((key[4*i+2]&0xFF)<<8) |  (key[4*i+3]&0xFF);
+        }
+        // expand
+        for (int i=Nk; i<totalWords; i++) {
+            int temp = w[i-1];
+            if (i % Nk == 0) {
+                temp = subWord(rotWord(temp)) ^ (RC[i/Nk] << 24);
+            } else if (Nk>6 && i%Nk==4) {
+                temp = subWord(temp);
+            }
+            w[i] = w[i-Nk] ^ temp;
+        }
+        // equivalent inverse cipher: reversed order, InvMixColumns on the middle rounds
+        int[] dk = new int[totalWords];
+        for (int r=0; r<=Nr; r++) {
+            for (int c=0; c<Nb; c++) {
+                int word = w[(Nr-r)*Nb + c];
+                dk[r*Nb + c] = (r == 0 || r == Nr) ? word : MixCols.invMix(word);
+            }
+        }
+        return new KeySchedule(Nk, w, dk);
+    }
+
+    /** Number of rounds (10, 12 or 14). */
+    public int rounds() {
+        return Nr;
+    }
+
+    private static int subWord(int w) {
+        return (SBox.sbox((w>>>24)&0xFF)<<24)
+                | (SBox.sbox((w>>>16)&0xFF)<<16)
+                | (SBox.sbox((w>>> 8)&0xFF)<< 8)
+                |  SBox.sbox( w       &0xFF);
+    }
+    private static int rotWord(int w) {
+        return (w<<8) | (w>>>24);
+    }
+}
@@ -0,0 +1,311 @@
+// MerkleTree.java
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <h1>MerkleTree</h1>
+ * <p>SHA-256 hash tree over fixed-size chunks of a document, for signing large inputs with
+ * RSA. Leaves are hashed in parallel on the common ForkJoinPool (files by positional mapped
+ * reads, streams with a bounded number of chunks in flight); the internal levels are then
+ * built pairwise, an odd last node moving up unchanged. The signature covers the root, the
+ * document length and the chunk size, and a single chunk can be checked against a signed
+ * root with its proof path.</p>
+ *
+ * <p>Leaf = SHA-256(0x00 || chunk), node = SHA-256(0x01 || left || right) (the RFC 6962
+ * domain separation), signed digest = SHA-256(0x02 || root || length || chunk size).</p>
+ */
+public final class MerkleTree {
+    public static final int DEFAULT_CHUNK = 1 << 20;
+    static final int HASH = 32;
+    private static final int WINDOW = 64 << 20;   // bytes mapped per fork-join leaf task
+
+    private final int chunkSize;
+    private final long length;
+    private final byte[][][] levels;   // levels[0] are the leaf hashes, the last level is the root
+
+    private MerkleTree(int chunkSize, long length, byte[][] leaves) {
+        this.chunkSize = chunkSize;
+        this.length = length;
+        List<byte[][]> lv = new ArrayList<>();
+        lv.add(leaves);
+        MessageDigest md = RSA.sha256();
+        // each internal node hashes 65 bytes, so the upper levels cost next to nothing next to the leaves
+        for (byte[][] level = leaves; level.length > 1; ) {
+            byte[][] up = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < up.length; i++) {
+                up[i] = 2*i + 1 < level.length ? node(md, level[2*i], level[2*i + 1]) : level[2*i];
+            }
+            lv.add(up);
+            level = up;
+        }
+        this.levels = lv.toArray(new byte[0][][]);
+    }
+
+    /** Tree over everything readable from in, reading chunkSize bytes at a time. */
+    public static MerkleTree of(InputStream in, int chunkSize) throws IOException {
+        checkChunkSize(chunkSize);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int inFlight = 2 * pool.getParallelism() + 1;
+        ArrayDeque<byte[]> free = new ArrayDeque<>();
+        ArrayDeque<ForkJoinTask<byte[]>> pending = new ArrayDeque<>();
+        ArrayDeque<byte[]> pendingBufs = new ArrayDeque<>();
+        List<byte[]> leaves = new ArrayList<>();
+        long length = 0;
+        try {
+            while (true) {
+                if (pending.size() == inFlight) {
+                    leaves.add(pending.poll().get());
+                    free.push(pendingBufs.poll());
+                }
+                byte[] buf = free.isEmpty() ? new byte[chunkSize] : free.pop();
+                int n = in.readNBytes(buf, 0, chunkSize);
+                if (n == 0 && length > 0) break;
+                length += n;
+                pending.add(pool.submit(() -> leaf(RSA.sha256(), buf, 0, n)));
+                pendingBufs.add(buf);
+                if (n < chunkSize) break;
+            }
+            while (!pending.isEmpty()) leaves.add(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        return new MerkleTree(chunkSize, length, leaves.toArray(new byte[0][]));
+    }
+
+    /** Tree over a file; chunks are read and hashed in parallel. */
+    public static MerkleTree of(Path file, int chunkSize) throws IOException {
+        checkChunkSize(chunkSize);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = ch.size();
+            byte[][] leaves = new byte[leafCount(length, chunkSize)][];
+            if (length == 0) {
+                leaves[0] = leaf(RSA.sha256(), new byte[0], 0, 0);
+            } else {
+                FileLeaves task = new FileLeaves(ch, length, chunkSize, leaves, 0, leaves.length);
+                try {
+                    ForkJoinPool.commonPool().invoke(task);
+                } catch (UncheckedIOException e) {
+                    // fork-join may rethrow a copy with the worker's exception as its cause
+                    for (Throwable c = e; c != null; c = c.getCause()) {
+                        if (c instanceof IOException) throw (IOException) c;
+                    }
+                    throw e;
+                }
+            }
+            return new MerkleTree(chunkSize, length, leaves);
+        }
+    }
+
+    /** Hashes leaves [from, to) of a file, one mapped window per task. */
+    private static final class FileLeaves extends RecursiveAction {
+        private static final long serialVersionUID = 1L;   // never serialized
+
+        private final FileChannel ch;
+        private final long length;
+        private final int chunkSize;
+        private final byte[][] leaves;
+        private final int from, to;
+
+        FileLeaves(FileChannel ch, long length, int chunkSize, byte[][] leaves, int from, int to) {
+            this.ch = ch;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.leaves = leaves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int group = Math.max(1, WINDOW / chunkSize);
+            if (to - from > group) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FileLeaves(ch, length, chunkSize, leaves, from, mid),
+                          new FileLeaves(ch, length, chunkSize, leaves, mid, to));
+                return;
+            }
+            long start = (long) from * chunkSize, end = Math.min(length, (long) to * chunkSize);
+            MappedByteBuffer map;
+            try {
+                map = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);   // unwrapped again by of(Path, int)
+            }
+            MessageDigest md = RSA.sha256();
+            for (int i = from; i < to; i++) {
+                int off = (int) ((long) (i - from) * chunkSize);
+                int n = (int) Math.min(chunkSize, end - start - off);
+                md.update((byte) 0);
+                md.update(map.slice(off, n));
+                leaves[i] = md.digest();
+            }
+        }
+    }
+
+    public byte[] root() {
+        return levels[levels.length - 1][0].clone();
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    public int leafCount() {
+        return levels[0].length;
+    }
+
+    /** Sibling hashes from leaf index up to the root, skipping levels where the node has none. */
+    public byte[][] proof(int index) {
+        if (index < 0 || index >= leafCount()) throw new IndexOutOfBoundsException("leaf " + index);
+        List<byte[]> path = new ArrayList<>();
+        for (int l = 0; l < levels.length - 1; l++, index >>>= 1) {
+            int sibling = index ^ 1;
+            if (sibling < levels[l].length) path.add(levels[l][sibling].clone());
+        }
+        return path.toArray(new byte[0][]);
+    }
+
+    /** The digest that gets signed: SHA-256(0x02 || root || length || chunk size). */
+    public byte[] signedDigest() {
+        return signedDigest(levels[levels.length - 1][0], length, chunkSize);
+    }
+
+    /** Sign the tree's root with the private key of rsa (RSASSA-PKCS1-v1_5, SHA-256). */
+    public byte[] sign(RSA rsa) {
+        return rsa.signDigest(signedDigest());
+    }
+
+    public boolean verify(byte[] signature, BigInteger pubE, BigInteger pubN) {
+        return RSA.verifyDigest(signedDigest(), signature, pubE, pubN);
+    }
+
+    // --- whole documents ---
+
+    public static byte[] sign(InputStream in, RSA rsa) throws IOException {
+        return of(in, DEFAULT_CHUNK).sign(rsa);
+    }
+
+    public static boolean verify(InputStream in, byte[] signature, BigInteger pubE, BigInteger pubN) throws IOException {
+        return of(in, DEFAULT_CHUNK).verify(signature, pubE, pubN);
+    }
+
+    public static byte[] sign(Path file, RSA rsa) throws IOException {
+        return of(file, DEFAULT_CHUNK).sign(rsa);
+    }
+
+    public static boolean verify(Path file, byte[] signature, BigInteger pubE, BigInteger pubN) throws IOException {
+        return of(file, DEFAULT_CHUNK).verify(signature, pubE, pubN);
+    }
+
+    // --- single chunks ---
+
+    /** Check that root, length and chunkSize are what the signature covers. */
+    public static boolean verifyRoot(byte[] root, long length, int chunkSize, byte[] signature,
+                                     BigInteger pubE, BigInteger pubN) {
+        return RSA.verifyDigest(signedDigest(root, length, chunkSize), signature, pubE, pubN);
+    }
+
+    /**
+     * Check that chunk is chunk number index of the document with this root, length and chunk
+     * size, given its proof(index). Combine with verifyRoot to trust the root itself.
+     */
+    public static boolean verifyChunk(byte[] chunk, int index, byte[][] proof, byte[] root, long length, int chunkSize) {
+        int count = leafCount(length, chunkSize);
+        if (index < 0 || index >= count) return false;
+        long expected = Math.min(chunkSize, length - (long) index * chunkSize);
+        if (chunk.length != expected) return false;
+        MessageDigest md = RSA.sha256();
+        byte[] h = leaf(md, chunk, 0, chunk.length);
+        int p = 0;
+        for (int m = count; m > 1; m = (m + 1) / 2, index >>>= 1) {
+            int sibling = index ^ 1;
+            if (sibling >= m) continue;   // odd last node: moves up unchanged
+            if (p == proof.length) return false;
+            h = (index & 1) == 0 ? node(md, h, proof[p++]) : node(md, proof[p++], h);
+        }
+        return p == proof.length && MessageDigest.isEqual(h, root);
+    }
+
+    // --- hashing ---
+
+    static int leafCount(long length, int chunkSize) {
+        long n = Math.max(1, (length + chunkSize - 1) / chunkSize);
+        if (n > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many chunks; use a larger chunk size");
+        return (int) n;
+    }
+
+    private static void checkChunkSize(int chunkSize) {
+        if (chunkSize < 1024 || chunkSize > WINDOW) throw new IllegalArgumentException("chunk size must be 1 KiB to 64 MiB");
+    }
+
+    private static byte[] leaf(MessageDigest md, byte[] b, int off, int len) {
+        md.update((byte) 0);
+        md.update(b, off, len);
+        return md.digest();
+    }
+
+    private static byte[] node(MessageDigest md, byte[] left, byte[] right) {
+        md.update((byte) 1);
+        md.update(left);
+        md.update(right);
+        return md.digest();
+    }
+
+    private static byte[] signedDigest(byte[] root, long length, int chunkSize) {
+        MessageDigest md = RSA.sha256();
+        md.update((byte) 2);
+        md.update(root);
+        md.update(ByteBuffer.allocate(12).putLong(length).putInt(chunkSize).array());
+        return md.digest();
+    }
+
+    /** CLI: java MerkleTree file — sign with a fresh 2048-bit key, verify, and check one chunk. */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java MerkleTree <file>");
+            System.exit(1);
+        }
+        Path file = Paths.get(args[0]);
+        RSA rsa = new RSA(2048);
+        BigInteger[] pub = rsa.getPublicKey();
+        long t = System.nanoTime();
+        MerkleTree tree = of(file, DEFAULT_CHUNK);
+        byte[] sig = tree.sign(rsa);
+        System.out.printf("%s: %d bytes, %d chunks, signed in %.1f ms%n",
+                file, tree.length(), tree.leafCount(), (System.nanoTime() - t) / 1e6);
+        System.out.println("signature valid: " + verify(file, sig, pub[0], pub[1]));
+        int i = tree.leafCount() / 2;
+        byte[] chunk;
+        try (InputStream in = Files.newInputStream(file)) {
+            in.skipNBytes((long) i * DEFAULT_CHUNK);
+            chunk = in.readNBytes(DEFAULT_CHUNK);
+        }
+        boolean ok = verifyRoot(tree.root(), tree.length(), tree.chunkSize(), sig, pub[0], pub[1])
+                && verifyChunk(chunk, i, tree.proof(i), tree.root(), tree.length(), tree.chunkSize());
+        System.out.printf("chunk %d verified with a %d-hash proof: %b%n", i, tree.proof(i).length, ok);
+    }
+}
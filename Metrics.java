@@ -0,0 +1,293 @@
+// Metrics.java
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * <h1>Metrics</h1>
+ * <p>Hot-path counters and histograms for AES, Crypto, RSA and DHE, on striped LongAdders.
+ * Turned on with <code>-Dcrypto.metrics=true</code>; ENABLED is a static final, so when it is
+ * off the JIT folds every recording call away. Read them with snapshot() or over JMX as
+ * <code>utpb.crypto:type=Metrics</code> after registerMBean().</p>
+ */
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("crypto.metrics");
+
+    /** Event counters. */
+    public enum Counter {
+        AES_ECB_ENCRYPT_BLOCKS("aes.ecb.encrypt.blocks"),
+        AES_ECB_DECRYPT_BLOCKS("aes.ecb.decrypt.blocks"),
+        AES_CBC_ENCRYPT_BLOCKS("aes.cbc.encrypt.blocks"),
+        AES_CBC_DECRYPT_BLOCKS("aes.cbc.decrypt.blocks"),
+        AES_CTR_BLOCKS("aes.ctr.blocks"),
+        AES_KEY_EXPANSIONS("aes.keyExpansions"),
+        FASTMOD_CALLS("crypto.fastMod.calls"),
+        PRIME_CANDIDATES("prime.candidates"),
+        PRIME_REJECTED_TRIAL_DIVISION("prime.rejected.trialDivision"),
+        PRIME_REJECTED_FERMAT("prime.rejected.fermat"),
+        PRIME_REJECTED_MILLER_RABIN("prime.rejected.millerRabin"),
+        PRIME_PASSED("prime.passed");
+
+        public final String key;
+        final LongAdder adder = new LongAdder();
+
+        Counter(String key) {
+            this.key = key;
+        }
+    }
+
+    /** Distributions: operand sizes in bits, latencies in nanoseconds. */
+    public enum Histogram {
+        FASTMOD_MODULUS_BITS("crypto.fastMod.modulusBits"),
+        FASTMOD_EXPONENT_BITS("crypto.fastMod.exponentBits"),
+        RSA_KEYGEN("rsa.keygen.nanos"),
+        RSA_ENCRYPT("rsa.encrypt.nanos"),
+        RSA_DECRYPT("rsa.decrypt.nanos"),
+        RSA_SIGN("rsa.sign.nanos"),
+        RSA_VERIFY("rsa.verify.nanos"),
+        DHE_PUBLIC_VALUE("dhe.publicValue.nanos"),
+        DHE_SHARED_KEY("dhe.sharedKey.nanos");
+
+        public final String key;
+        // bucket b holds values v with 2^(b-1) <= v < 2^b (bucket 0 holds 0)
+        final LongAdder[] buckets = new LongAdder[64];
+        final LongAdder count = new LongAdder(), sum = new LongAdder();
+
+        Histogram(String key) {
+            this.key = key;
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    public static void count(Counter c) {
+        if (ENABLED) c.adder.increment();
+    }
+
+    public static void count(Counter c, long n) {
+        if (ENABLED) c.adder.add(n);
+    }
+
+    public static void record(Histogram h, long value) {
+        if (!ENABLED) return;
+        long v = Math.max(value, 0);
+        h.buckets[64 - Long.numberOfLeadingZeros(v)].increment();
+        h.count.increment();
+        h.sum.add(v);
+    }
+
+    /** Start time for a latency measurement (0 when disabled, skipping the clock read). */
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /** Record the time since start() in h. */
+    public static void stop(Histogram h, long start) {
+        if (ENABLED) record(h, System.nanoTime() - start);
+    }
+
+    /** Zero every counter and histogram. */
+    public static void reset() {
+        for (Counter c : Counter.values()) c.adder.reset();
+        for (Histogram h : Histogram.values()) {
+            for (LongAdder b : h.buckets) b.reset();
+            h.count.reset();
+            h.sum.reset();
+        }
+    }
+
+    /** Point-in-time copy of one histogram. */
+    public static final class HistogramSnapshot {
+        public final long count, sum;
+        private final long[] buckets;
+
+        HistogramSnapshot(Histogram h) {
+            buckets = new long[h.buckets.length];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = h.buckets[i].sum();
+            count = h.count.sum();
+            sum = h.sum.sum();
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /** Upper bound of the power-of-two bucket holding quantile q (0..1). */
+        public long percentile(double q) {
+            long total = 0;
+            for (long b : buckets) total += b;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(q * total), seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && buckets[i] > 0) return i == 0 ? 0 : (1L << i) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /** Point-in-time copy of every metric, keyed by name. */
+    public static final class Snapshot {
+        public final Map<String, Long> counters;
+        public final Map<String, HistogramSnapshot> histograms;
+
+        Snapshot() {
+            Map<String, Long> c = new LinkedHashMap<>();
+            for (Counter k : Counter.values()) c.put(k.key, k.adder.sum());
+            Map<String, HistogramSnapshot> h = new LinkedHashMap<>();
+            for (Histogram k : Histogram.values()) h.put(k.key, new HistogramSnapshot(k));
+            counters = Collections.unmodifiableMap(c);
+            histograms = Collections.unmodifiableMap(h);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            counters.forEach((k, v) -> sb.append(String.format("%-32s %d%n", k, v)));
+            histograms.forEach((k, v) -> {
+                if (v.count > 0) {
+                    sb.append(String.format("%-32s n=%d mean=%.0f p50<=%d p99<=%d%n",
+                            k, v.count, v.mean(), v.percentile(0.5), v.percentile(0.99)));
+                }
+            });
+            return sb.toString();
+        }
+    }
+
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    // --- JMX ---
+
+    public static final String OBJECT_NAME = "utpb.crypto:type=Metrics";
+
+    /** Register the metrics with the platform MBean server (once; later calls do nothing). */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) server.registerMBean(new MBean(), name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+    /**
+     * Read-only view: one Long attribute per counter, and count / mean / p50 / p99 per
+     * histogram (e.g. rsa.sign.nanos.p99); plus a reset operation.
+     */
+    private static final class MBean implements DynamicMBean {
+        private static final String[] STATS = {"count", "mean", "p50", "p99"};
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            for (Counter c : Counter.values()) {
+                if (c.key.equals(attribute)) return c.adder.sum();
+            }
+            for (Histogram h : Histogram.values()) {
+                if (!attribute.startsWith(h.key + ".")) continue;
+                HistogramSnapshot s = new HistogramSnapshot(h);
+                switch (attribute.substring(h.key.length() + 1)) {
+                    case "count": return s.count;
+                    case "mean":  return s.mean();
+                    case "p50":   return s.percentile(0.5);
+                    case "p99":   return s.percentile(0.99);
+                    default:      break;
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String a : attributes) {
+                try {
+                    list.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException e) {
+                    // skipped, as the DynamicMBean contract allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String action, Object[] params, String[] signature) throws ReflectionException {
+            if (!"reset".equals(action)) {
+                throw new ReflectionException(new NoSuchMethodException(action), "No operation " + action);
+            }
+            reset();
+            return null;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attrs = new ArrayList<>();
+            for (Counter c : Counter.values()) {
+                attrs.add(new MBeanAttributeInfo(c.key, "long", c.key, true, false, false));
+            }
+            for (Histogram h : Histogram.values()) {
+                for (String s : STATS) {
+                    String type = s.equals("mean") ? "double" : "long";
+                    attrs.add(new MBeanAttributeInfo(h.key + "." + s, type, h.key + " " + s, true, false, false));
+                }
+            }
+            MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Zero every metric",
+                    null, "void", MBeanOperationInfo.ACTION);
+            return new MBeanInfo(Metrics.class.getName(), "Crypto hot-path metrics" + (ENABLED ? "" : " (disabled)"),
+                    attrs.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+        }
+    }
+
+    /** Exercise each instrumented path and print the snapshot; run with -Dcrypto.metrics=true. */
+    public static void main(String[] args) {
+        if (!ENABLED) System.out.println("Metrics are disabled; run with -Dcrypto.metrics=true");
+        registerMBean();
+        AES aes = new AES("Thats my Kung Fu");
+        byte[] data = new byte[64 << 10];
+        aes.decrypt(aes.encrypt(data, true), true);
+        aes.decrypt(aes.encrypt(data, false), false);
+        aes.ctr(data, new byte[8], 0);
+
+        RSA a = new RSA(1024), b = new RSA(1024);
+        BigInteger[] bPub = b.getPublicKey();
+        String ct = a.encrypt("metrics", bPub[0], bPub[1]);
+        b.decrypt(ct);
+        String sig = a.sign(ct);
+        b.authenticate(sig, a.getPublicKey()[0], a.getPublicKey()[1]);
+
+        DHE dhe = DHE.modp(2048);
+        BigInteger x = dhe.getBase(2047), y = dhe.getBase(2047);
+        dhe.getKey(x, dhe.getExponent(y));
+        System.out.print(snapshot());
+    }
+}
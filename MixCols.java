@@ -16,8 +16,8 @@ public class MixCols {
             mc3[i]  = mc2[i] ^ x;
             mc9[i]  = xtime(xtime(xtime(x))) ^ x;
             mc11[i] = mc9[i] ^ mc2[i];
-            mc13[i] = mc9[i] ^ xtime(x);
-            mc14[i] = mc9[i] ^ xtime(x) ^ x;
+            mc13[i] = mc9[i] ^ xtime(xtime(x));
+            mc14[i] = mc13[i] ^ mc3[i];
         }
     }
 
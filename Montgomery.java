@@ -0,0 +1,195 @@
+// Montgomery.java
+import java.math.BigInteger;
+
+/**
+ * <h1>Montgomery</h1>
+ * <p>Modular exponentiation context for one odd modulus: Montgomery multiplication (FIOS)
+ * over 32-bit int[] limbs with a sliding-window exponent scan. Build it once per modulus
+ * and reuse it; it is immutable and safe to share between threads.</p>
+ */
+public final class Montgomery {
+    private static final long MASK = 0xFFFFFFFFL;
+
+    private final BigInteger modulus;
+    private final int n;          // limbs in the modulus
+    private final int[] m;        // modulus limbs, least significant first
+    private final int n0inv;      // -m^-1 mod 2^32
+    private final int[] r2;       // R^2 mod m, R = 2^(32n)
+    private final int[] one;      // R mod m: 1 in Montgomery form
+
+    public Montgomery(BigInteger modulus) {
+        if (modulus.signum() <= 0 || !modulus.testBit(0)) {
+            throw new IllegalArgumentException("Montgomery modulus must be odd and positive");
+        }
+        this.modulus = modulus;
+        this.n = (modulus.bitLength() + 31) / 32;
+        this.m = toLimbs(modulus, n);
+        // Newton iteration for m[0]^-1 mod 2^32 (each step doubles the correct bits)
+        int inv = m[0];
+        for (int i = 0; i < 5; i++) inv *= 2 - m[0] * inv;
+        this.n0inv = -inv;
+        this.r2 = toLimbs(BigInteger.ONE.shiftLeft(64 * n).mod(modulus), n);
+        this.one = toLimbs(BigInteger.ONE.shiftLeft(32 * n).mod(modulus), n);
+    }
+
+    public BigInteger getModulus() {
+        return modulus;
+    }
+
+    /** base^exp mod modulus; exp must be non-negative. */
+    public BigInteger modPow(BigInteger base, BigInteger exp) {
+        if (exp.signum() < 0) throw new ArithmeticException("negative exponent");
+        if (modulus.equals(BigInteger.ONE)) return BigInteger.ZERO;
+        int bits = exp.bitLength();
+        if (bits == 0) return BigInteger.ONE;
+
+        long[] t = new long[n + 1];
+        int k = windowBits(bits);
+        // odd powers g, g^3, ..., g^(2^k - 1) in Montgomery form
+        int[][] table = new int[1 << (k - 1)][];
+        int[] g = toMont(base, t);
+        table[0] = g;
+        if (k > 1) {
+            int[] g2 = new int[n];
+            mul(g, g, g2, t);
+            for (int i = 1; i < table.length; i++) {
+                table[i] = new int[n];
+                mul(table[i - 1], g2, table[i], t);
+            }
+        }
+
+        int[] acc = one.clone();
+        boolean started = false;
+        int i = bits - 1;
+        while (i >= 0) {
+            if (!exp.testBit(i)) {
+                if (started) mul(acc, acc, acc, t);
+                i--;
+                continue;
+            }
+            // longest window [i..l] of at most k bits that ends in a 1
+            int l = Math.max(i - k + 1, 0);
+            while (!exp.testBit(l)) l++;
+            int value = 0;
+            for (int j = i; j >= l; j--) {
+                value = (value << 1) | (exp.testBit(j) ? 1 : 0);
+                if (started) mul(acc, acc, acc, t);
+            }
+            if (started) {
+                mul(acc, table[value >>> 1], acc, t);
+            } else {
+                System.arraycopy(table[value >>> 1], 0, acc, 0, n);
+                started = true;
+            }
+            i = l - 1;
+        }
+        return fromMont(acc, t);
+    }
+
+    // --- Montgomery-form primitives for precomputed tables (see FixedBase) ---
+
+    /** Limbs per residue. */
+    int limbs() {
+        return n;
+    }
+
+    /** Scratch buffer for mul(). */
+    long[] scratch() {
+        return new long[n + 1];
+    }
+
+    /** x mod m in Montgomery form. */
+    int[] toMont(BigInteger x, long[] t) {
+        int[] out = new int[n];
+        mul(toLimbs(x.mod(modulus), n), r2, out, t);
+        return out;
+    }
+
+    /** Leave Montgomery form; a is overwritten. */
+    BigInteger fromMont(int[] a, long[] t) {
+        int[] plainOne = new int[n];
+        plainOne[0] = 1;
+        mul(a, plainOne, a, t);
+        return fromLimbs(a);
+    }
+
+    /** Window size for a given exponent length (same break points as BigInteger.modPow). */
+    private static int windowBits(int bits) {
+        if (bits > 671) return 6;
+        if (bits > 239) return 5;
+        if (bits > 79)  return 4;
+        if (bits > 23)  return 3;
+        return 1;
+    }
+
+    /** out = a * b * R^-1 mod m; out may alias a or b; t is scratch of n+1 longs. */
+    void mul(int[] a, int[] b, int[] out, long[] t) {
+        final int n = this.n;
+        final int[] m = this.m;
+        final long m0 = m[0] & MASK, a0 = a[0] & MASK;
+        java.util.Arrays.fill(t, 0);
+        for (int i = 0; i < n; i++) {
+            // t = (t + a*b[i] + q*m) / 2^32, with q chosen so the low limb cancels
+            long bi = b[i] & MASK;
+            long s = t[0] + a0 * bi;
+            long c1 = s >>> 32;
+            long lo = s & MASK;
+            long q = (lo * n0inv) & MASK;
+            long c2 = (lo + q * m0) >>> 32;
+            for (int j = 1; j < n; j++) {
+                s = t[j] + (a[j] & MASK) * bi + c1;
+                c1 = s >>> 32;
+                long s2 = (s & MASK) + q * (m[j] & MASK) + c2;
+                c2 = s2 >>> 32;
+                t[j - 1] = s2 & MASK;
+            }
+            s = t[n] + c1 + c2;
+            t[n - 1] = s & MASK;
+            t[n] = s >>> 32;
+        }
+        // t < 2m: one conditional subtraction
+        boolean ge = t[n] != 0;
+        if (!ge) {
+            ge = true;
+            for (int j = n - 1; j >= 0; j--) {
+                long mj = m[j] & MASK;
+                if (t[j] != mj) {
+                    ge = t[j] > mj;
+                    break;
+                }
+            }
+        }
+        if (ge) {
+            long borrow = 0;
+            for (int j = 0; j < n; j++) {
+                long d = t[j] - (m[j] & MASK) - borrow;
+                out[j] = (int) d;
+                borrow = (d >>> 63);
+            }
+        } else {
+            for (int j = 0; j < n; j++) out[j] = (int) t[j];
+        }
+    }
+
+    private static int[] toLimbs(BigInteger x, int n) {
+        int[] limbs = new int[n];
+        byte[] b = x.toByteArray();   // big-endian, may carry a leading sign byte
+        for (int i = 0; i < b.length && i < 4 * n; i++) {
+            limbs[i / 4] |= (b[b.length - 1 - i] & 0xFF) << (8 * (i % 4));
+        }
+        return limbs;
+    }
+
+    private static BigInteger fromLimbs(int[] limbs) {
+        byte[] b = new byte[4 * limbs.length];
+        for (int i = 0; i < limbs.length; i++) {
+            int v = limbs[i];
+            int o = b.length - 4 * i;
+            b[o - 1] = (byte) v;
+            b[o - 2] = (byte) (v >>> 8);
+            b[o - 3] = (byte) (v >>> 16);
+            b[o - 4] = (byte) (v >>> 24);
+        }
+        return new BigInteger(1, b);
+    }
+}
@@ -0,0 +1,143 @@
+// ParallelPrimeSearch.java
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <h1>ParallelPrimeSearch</h1>
+ * <p>Runs independent PrimeSieve streams (each with its own random start) on N worker
+ * threads, returns the first verified prime and interrupts the rest.</p>
+ */
+public class ParallelPrimeSearch {
+
+    /** Outcome of one search, including how much work each worker did. */
+    public static final class Result {
+        public final BigInteger prime;
+        public final int worker;          // index of the worker that found it
+        public final long[] tested;       // candidates per worker that reached Fermat/Miller–Rabin
+        public final long[] sieved;       // candidates per worker stepped over by the sieve
+        public final long elapsedNanos;
+
+        Result(BigInteger prime, int worker, long[] tested, long[] sieved, long elapsedNanos) {
+            this.prime = prime;
+            this.worker = worker;
+            this.tested = tested;
+            this.sieved = sieved;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d-bit prime from worker %d in %.1f ms, tested=%s sieved=%s",
+                    prime.bitLength(), worker, elapsedNanos / 1e6,
+                    Arrays.toString(tested), Arrays.toString(sieved));
+        }
+    }
+
+    /**
+     * Wait for cancelled workers, which stop at their next candidate. An interrupt ends the
+     * wait early and is kept on the thread rather than thrown.
+     */
+    private static boolean awaitStopped(ExecutorService pool) {
+        try {
+            return pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Default worker count: one per available core. */
+    public static int defaultThreads() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Parallel Crypto.getPrime with no timeout. */
+    public static BigInteger getPrime(int minBits, int maxBits, int numChecks, int threads) {
+        return searchUninterruptibly(minBits, maxBits, false, numChecks, threads);
+    }
+
+    /** Parallel Crypto.getSafePrime with no timeout. */
+    public static BigInteger getSafePrime(int minBits, int maxBits, int numChecks, int threads) {
+        return searchUninterruptibly(minBits, maxBits, true, numChecks, threads);
+    }
+
+    private static BigInteger searchUninterruptibly(int minBits, int maxBits, boolean safe,
+                                                    int numChecks, int threads) {
+        try {
+            return search(minBits, maxBits, safe, numChecks, threads, 0, TimeUnit.MILLISECONDS).prime;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Prime search interrupted", e);
+        } catch (TimeoutException e) {
+            throw new AssertionError(e);  // no timeout was set
+        }
+    }
+
+    /**
+     * Search for a prime (or safe prime p = 2q+1) in (minBits, maxBits] on threads workers.
+     * A timeout of 0 waits indefinitely.
+     */
+    public static Result search(int minBits, int maxBits, boolean safe, int numChecks, int threads,
+                                long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive");
+        int bits = safe ? minBits - 1 : minBits;
+        if (bits < Crypto.SIEVE_MIN_BITS) {
+            // too small for the sieve; a single stream finishes almost immediately
+            long t = System.nanoTime();
+            BigInteger p = safe ? Crypto.getSafePrime(minBits, maxBits, numChecks)
+                                : Crypto.getPrime(minBits, maxBits, numChecks);
+            return new Result(p, 0, new long[1], new long[1], System.nanoTime() - t);
+        }
+
+        PrimeSieve[] sieves = new PrimeSieve[threads];
+        List<Callable<Map.Entry<Integer, BigInteger>>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int id = i;
+            sieves[i] = new PrimeSieve(minBits, maxBits, safe);
+            tasks.add(() -> {
+                BigInteger p = sieves[id].find(numChecks);
+                if (p == null) throw new InterruptedException("cancelled");
+                return Map.entry(id, p);
+            });
+        }
+
+        AtomicInteger n = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "prime-search-" + n.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        long start = System.nanoTime();
+        Map.Entry<Integer, BigInteger> win;
+        boolean stopped;
+        try {
+            win = timeout > 0 ? pool.invokeAny(tasks, timeout, unit) : pool.invokeAny(tasks);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Prime search failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            stopped = awaitStopped(pool);   // never throws, so the outcome above stands
+        }
+        if (!stopped && !Thread.currentThread().isInterrupted()) {
+            throw new IllegalStateException("Prime search workers did not stop within a minute");
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long[] tested = new long[threads], sieved = new long[threads];
+        for (int i = 0; i < threads; i++) {
+            tested[i] = sieves[i].getTested();
+            sieved[i] = sieves[i].getSieved();
+        }
+        return new Result(win.getValue(), win.getKey(), tested, sieved, elapsed);
+    }
+}
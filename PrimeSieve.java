@@ -0,0 +1,139 @@
+// PrimeSieve.java
+import java.math.BigInteger;
+
+/**
+ * <h1>PrimeSieve</h1>
+ * <p>Incremental prime search: pick one random odd start, keep its residues mod the small
+ * primes and step forward by 2, updating the residues with an add and a compare instead of
+ * a BigInteger division per candidate. Only candidates that survive the sieve reach the
+ * Fermat / Miller–Rabin tests. In safe mode q and p = 2q+1 are sieved together.</p>
+ */
+public class PrimeSieve {
+    private static final BigInteger TWO = BigInteger.valueOf(2);
+    private static final int MAX_STEP = 1 << 20;   // re-randomise after this many steps
+
+    private final int minBits, maxBits;            // bit range of the value returned
+    private final boolean safe;
+    private final int[] primes;
+    private final int[] half;                      // (s-1)/2: q ≡ half (mod s) makes 2q+1 divisible by s
+    private final SmallPrimes.Table table;
+    private int[] residues;
+    private BigInteger start;
+    private int step;
+    private long sieved, tested;
+
+    /** Search for primes in (minBits, maxBits]; with safe, p = 2q+1 in that range. */
+    public PrimeSieve(int minBits, int maxBits, boolean safe) {
+        this.minBits = minBits;
+        this.maxBits = maxBits;
+        this.safe = safe;
+        this.table = SmallPrimes.snapshot();
+        this.primes = table.primes;
+        this.half = new int[primes.length];
+        for (int i = 0; i < primes.length; i++) half[i] = (primes[i] - 1) / 2;
+        restart();
+    }
+
+    /** Candidates stepped over so far, and how many of them reached the probabilistic tests. */
+    public long getSieved() {
+        return sieved;
+    }
+
+    public long getTested() {
+        return tested;
+    }
+
+    /**
+     * Search until a probable (safe) prime is found; numChecks rounds of each test.
+     * Returns null if the calling thread is interrupted, so a search can be cancelled.
+     */
+    public BigInteger find(int numChecks) {
+        while (!Thread.currentThread().isInterrupted()) {
+            BigInteger c = next();
+            tested++;
+            if (!safe) {
+                if (Crypto.probablePrime(c, numChecks)) return c;
+                continue;
+            }
+            BigInteger p = c.shiftLeft(1).add(BigInteger.ONE);
+            // one cheap base-2 Fermat round on both before the full tests; for p, 2^(p-1) = (2^q)^2,
+            // so 2^q = ±1 (mod p) is the same round (2^q alone is Euler's criterion and would keep
+            // only p ≡ 7 mod 8)
+            BigInteger r = Crypto.fastMod(TWO, c, p);
+            if (!Crypto.fastMod(TWO, c.subtract(BigInteger.ONE), c).equals(BigInteger.ONE)
+                    || !(r.equals(BigInteger.ONE) || r.equals(p.subtract(BigInteger.ONE)))) {
+                Metrics.count(Metrics.Counter.PRIME_REJECTED_FERMAT);
+                continue;
+            }
+            if (Crypto.probablePrime(c, numChecks) && Crypto.probablePrime(p, numChecks)) return p;
+        }
+        return null;
+    }
+
+    /** Smoke test: safe primes must come out both ≡ 3 and ≡ 7 (mod 8). */
+    public static void main(String[] args) {
+        int bits = args.length > 0 ? Integer.parseInt(args[0]) : 128;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 40;
+        int[] byResidue = new int[8];
+        long t = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            BigInteger p = new PrimeSieve(bits, bits + 1, true).find(10);
+            byResidue[p.intValue() & 7]++;
+        }
+        System.out.printf("%d safe primes of %d bits in %.1f ms: %d with p mod 8 = 3, %d with p mod 8 = 7%n",
+                count, bits, (System.nanoTime() - t) / 1e6, byResidue[3], byResidue[7]);
+        System.out.println(byResidue[3] > 0 && byResidue[7] > 0 ? "PASS" : "FAIL: residues mod 8 are skewed");
+    }
+
+    /** Next candidate (q in safe mode) with no factor in the small-prime table. */
+    BigInteger next() {
+        while (true) {
+            if (step >= MAX_STEP) restart();
+            int s = step;
+            step += 2;
+            sieved++;
+            Metrics.count(Metrics.Counter.PRIME_CANDIDATES);
+            if (s > 0) advance();
+            if (!survives()) {
+                Metrics.count(Metrics.Counter.PRIME_REJECTED_TRIAL_DIVISION);
+                continue;
+            }
+            BigInteger c = start.add(BigInteger.valueOf(s));
+            if (c.bitLength() > (safe ? maxBits - 1 : maxBits)) {
+                restart();
+                continue;
+            }
+            return c;
+        }
+    }
+
+    private void restart() {
+        int lo = safe ? minBits - 1 : minBits, hi = safe ? maxBits - 1 : maxBits;
+        start = Crypto.getRandom(lo, hi).setBit(0);
+        residues = table.residues(start);
+        step = 0;
+    }
+
+    /** Move every residue forward by 2 (index 0 is the prime 2; candidates stay odd). */
+    private void advance() {
+        int[] r = residues;
+        for (int i = 1; i < r.length; i++) {
+            int v = r[i] + 2;
+            r[i] = v >= primes[i] ? v - primes[i] : v;
+        }
+    }
+
+    private boolean survives() {
+        int[] r = residues;
+        if (safe) {
+            for (int i = 1; i < r.length; i++) {
+                if (r[i] == 0 || r[i] == half[i]) return false;
+            }
+        } else {
+            for (int i = 1; i < r.length; i++) {
+                if (r[i] == 0) return false;
+            }
+        }
+        return true;
+    }
+}
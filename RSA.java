@@ -1,13 +1,27 @@
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import javax.crypto.BadPaddingException;
 
 public class RSA {
     private BigInteger p, q, n, phi, e, d;
+    private BigInteger dP, dQ, qInv;    // CRT components: d mod (p-1), d mod (q-1), q^-1 mod p
+    private Montgomery ctxP, ctxQ, ctxN;  // per-modulus exponentiation contexts
+    private boolean verifyCRT = false;
 
+    /** Throws IllegalStateException, with the interrupt flag kept, if interrupted during the prime search. */
     public RSA(int bits) {
-        p = Crypto.getPrime(bits / 2, bits / 2 + 1, 10);
+        this(bits, 1);
+    }
+
+    /** With threads > 1, p and q are each searched for on that many worker threads. */
+    public RSA(int bits, int threads) {
+        long t0 = Metrics.start();
+        p = newPrime(bits, threads);
         do {
-            q = Crypto.getPrime(bits / 2, bits / 2 + 1, 10);
+            q = newPrime(bits, threads);
         } while (q.equals(p));
 
         n = p.multiply(q);
@@ -18,17 +32,58 @@ public class RSA {
             e = e.add(BigInteger.valueOf(2));
         }
         d = Crypto.modularInverse(e, phi);
+
+        dP = d.mod(p.subtract(BigInteger.ONE));
+        dQ = d.mod(q.subtract(BigInteger.ONE));
+        qInv = Crypto.modularInverse(q, p);
+
+        ctxP = new Montgomery(p);
+        ctxQ = new Montgomery(q);
+        ctxN = new Montgomery(n);
+        Metrics.stop(Metrics.Histogram.RSA_KEYGEN, t0);
+    }
+
+    /** When on, every private-key result is re-checked with the public key (fault-attack guard). */
+    public void setVerifyCRT(boolean verify) {
+        this.verifyCRT = verify;
     }
 
+    /** c^d mod n as two half-size exponentiations joined with Garner's recombination. */
+    private BigInteger privateOp(BigInteger c) {
+        BigInteger m1 = Crypto.fastMod(c, dP, ctxP);
+        BigInteger m2 = Crypto.fastMod(c, dQ, ctxQ);
+        BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+        BigInteger m = m2.add(h.multiply(q));
+        if (verifyCRT && !Crypto.fastMod(m, e, ctxN).equals(c.mod(n))) {
+            throw new ArithmeticException("RSA CRT result failed verification");
+        }
+        return m;
+    }
+
+    private static BigInteger newPrime(int bits, int threads) {
+        return threads > 1
+                ? ParallelPrimeSearch.getPrime(bits / 2, bits / 2 + 1, 10, threads)
+                : Crypto.getPrime(bits / 2, bits / 2 + 1, 10);
+    }
+
+    /** Textbook RSA on the UTF-8 bytes; the message must be smaller than pubN (see wrap and Envelope). */
     public String encrypt(String message, BigInteger pubE, BigInteger pubN) {
         byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
         BigInteger msg = new BigInteger(1, bytes);
-        return Crypto.fastMod(msg, pubE, pubN).toString(16);
+        if (msg.compareTo(pubN) >= 0) {
+            throw new IllegalArgumentException("Message too long for a " + pubN.bitLength() + "-bit modulus; use Envelope");
+        }
+        long t0 = Metrics.start();
+        BigInteger c = Crypto.fastMod(msg, pubE, pubN);
+        Metrics.stop(Metrics.Histogram.RSA_ENCRYPT, t0);
+        return c.toString(16);
     }
 
     public String decrypt(String ciphertext) {
         BigInteger cipher = new BigInteger(ciphertext, 16);
-        BigInteger msg = Crypto.fastMod(cipher, d, n);
+        long t0 = Metrics.start();
+        BigInteger msg = privateOp(cipher);
+        Metrics.stop(Metrics.Histogram.RSA_DECRYPT, t0);
         byte[] bytes = msg.toByteArray();
         if (bytes[0] == 0) {
             byte[] tmp = new byte[bytes.length - 1];
@@ -40,20 +95,169 @@ public class RSA {
 
     public String sign(String hexText) {
         BigInteger m = new BigInteger(hexText, 16);
-        return Crypto.fastMod(m, d, n).toString(16);
+        long t0 = Metrics.start();
+        BigInteger s = privateOp(m);
+        Metrics.stop(Metrics.Histogram.RSA_SIGN, t0);
+        return s.toString(16);
     }
 
     public String authenticate(String hexSig, BigInteger pubE, BigInteger pubN) {
         BigInteger s = new BigInteger(hexSig, 16);
-        return Crypto.fastMod(s, pubE, pubN).toString(16);
+        long t0 = Metrics.start();
+        BigInteger m = Crypto.fastMod(s, pubE, pubN);
+        Metrics.stop(Metrics.Histogram.RSA_VERIFY, t0);
+        return m.toString(16);
+    }
+
+    // --- RSA-OAEP (RFC 8017, SHA-256 and MGF1-SHA-256, empty label) ---
+
+    private static final int HLEN = 32;
+
+    /** Largest key or message wrap() accepts for a modulus of bits bits. */
+    public static int maxWrapLength(int bits) {
+        return (bits + 7) / 8 - 2 * HLEN - 2;
+    }
+
+    /** RSA-OAEP encrypt a short secret (e.g. an AES key) to (pubE, pubN); the result is k bytes, k = |n| in bytes. */
+    public static byte[] wrap(byte[] secret, BigInteger pubE, BigInteger pubN) {
+        int k = (pubN.bitLength() + 7) / 8;
+        if (secret.length > maxWrapLength(pubN.bitLength())) {
+            throw new IllegalArgumentException("At most " + maxWrapLength(pubN.bitLength()) + " bytes fit a "
+                    + pubN.bitLength() + "-bit modulus, got " + secret.length);
+        }
+        // EM = 0x00 || maskedSeed || maskedDB, DB = lHash || 0x00.. || 0x01 || secret
+        byte[] em = new byte[k];
+        byte[] seed = new byte[HLEN];
+        Rand.nextBytes(seed);
+        byte[] db = new byte[k - HLEN - 1];
+        System.arraycopy(sha256().digest(), 0, db, 0, HLEN);
+        db[db.length - secret.length - 1] = 1;
+        System.arraycopy(secret, 0, db, db.length - secret.length, secret.length);
+        mgf1Xor(seed, 0, HLEN, db, 0, db.length);
+        mgf1Xor(db, 0, db.length, seed, 0, HLEN);
+        System.arraycopy(seed, 0, em, 1, HLEN);
+        System.arraycopy(db, 0, em, 1 + HLEN, db.length);
+        long t0 = Metrics.start();
+        BigInteger c = Crypto.fastMod(new BigInteger(1, em), pubE, pubN);
+        Metrics.stop(Metrics.Histogram.RSA_ENCRYPT, t0);
+        return toBytes(c, k);
+    }
+
+    /**
+     * Recover a secret wrapped to this key. Every decoding failure throws the same exception,
+     * after the same work, so the caller can't be used as a padding oracle.
+     */
+    public byte[] unwrap(byte[] wrapped) throws BadPaddingException {
+        int k = (n.bitLength() + 7) / 8;
+        BigInteger c = new BigInteger(1, wrapped);
+        if (wrapped.length != k || c.compareTo(n) >= 0) throw new BadPaddingException("RSA-OAEP decoding failed");
+        long t0 = Metrics.start();
+        byte[] em = toBytes(privateOp(c), k);
+        Metrics.stop(Metrics.Histogram.RSA_DECRYPT, t0);
+        byte[] seed = Arrays.copyOfRange(em, 1, 1 + HLEN);
+        byte[] db = Arrays.copyOfRange(em, 1 + HLEN, k);
+        mgf1Xor(db, 0, db.length, seed, 0, HLEN);
+        mgf1Xor(seed, 0, HLEN, db, 0, db.length);
+        byte[] lHash = sha256().digest();
+        int bad = em[0];
+        for (int i = 0; i < HLEN; i++) bad |= db[i] ^ lHash[i];
+        // find the 0x01 separator without branching on secret bytes
+        int sep = 0, found = 0;
+        for (int i = HLEN; i < db.length; i++) {
+            int b = db[i] & 0xFF;
+            int isOne = ((b ^ 1) - 1) >>> 31 & ~found & 1;
+            int isZero = (b - 1) >>> 31;
+            sep |= -isOne & i;
+            found |= isOne;
+            bad |= ~found & ~isZero & ~isOne & 1;   // a non-zero byte before the separator
+        }
+        bad |= ~found & 1;
+        if (bad != 0) throw new BadPaddingException("RSA-OAEP decoding failed");
+        return Arrays.copyOfRange(db, sep + 1, db.length);
+    }
+
+    // --- RSASSA-PKCS1-v1_5 with SHA-256 (RFC 8017) ---
+
+    // DER prefix of DigestInfo { sha256, OCTET STRING (32 bytes) }
+    private static final byte[] SHA256_DIGEST_INFO = {
+        0x30, 0x31, 0x30, 0x0d, 0x06, 0x09, 0x60, (byte) 0x86, 0x48, 0x01, 0x65, 0x03, 0x04, 0x02, 0x01,
+        0x05, 0x00, 0x04, 0x20
+    };
+
+    /** Sign a SHA-256 digest; the signature is k bytes, k = |n| in bytes. */
+    public byte[] signDigest(byte[] sha256) {
+        int k = (n.bitLength() + 7) / 8;
+        long t0 = Metrics.start();
+        BigInteger s = privateOp(new BigInteger(1, pkcs1Encode(sha256, k)));
+        Metrics.stop(Metrics.Histogram.RSA_SIGN, t0);
+        return toBytes(s, k);
+    }
+
+    /** Check a signDigest signature on a SHA-256 digest against the public key (pubE, pubN). */
+    public static boolean verifyDigest(byte[] sha256, byte[] signature, BigInteger pubE, BigInteger pubN) {
+        int k = (pubN.bitLength() + 7) / 8;
+        BigInteger s = new BigInteger(1, signature);
+        if (signature.length != k || s.compareTo(pubN) >= 0) return false;
+        long t0 = Metrics.start();
+        BigInteger m = Crypto.fastMod(s, pubE, pubN);
+        Metrics.stop(Metrics.Histogram.RSA_VERIFY, t0);
+        return MessageDigest.isEqual(toBytes(m, k), pkcs1Encode(sha256, k));
+    }
+
+    /** EM = 0x00 0x01 0xFF.. 0x00 || DigestInfo || digest. */
+    private static byte[] pkcs1Encode(byte[] sha256, int k) {
+        if (sha256.length != HLEN) throw new IllegalArgumentException("Expected a 32-byte SHA-256 digest");
+        int t = SHA256_DIGEST_INFO.length + HLEN;
+        if (k < t + 11) throw new IllegalArgumentException("Modulus too small for a SHA-256 signature");
+        byte[] em = new byte[k];
+        em[1] = 1;
+        Arrays.fill(em, 2, k - t - 1, (byte) 0xFF);
+        System.arraycopy(SHA256_DIGEST_INFO, 0, em, k - t, SHA256_DIGEST_INFO.length);
+        System.arraycopy(sha256, 0, em, k - HLEN, HLEN);
+        return em;
+    }
+
+    /** out[outOff..] ^= MGF1-SHA-256(seed[seedOff, seedOff+seedLen)), for outLen bytes. */
+    private static void mgf1Xor(byte[] seed, int seedOff, int seedLen, byte[] out, int outOff, int outLen) {
+        MessageDigest md = sha256();
+        byte[] counter = new byte[4];
+        for (int done = 0, i = 0; done < outLen; i++) {
+            counter[0] = (byte)(i >>> 24);
+            counter[1] = (byte)(i >>> 16);
+            counter[2] = (byte)(i >>> 8);
+            counter[3] = (byte) i;
+            md.update(seed, seedOff, seedLen);
+            md.update(counter);
+            byte[] h = md.digest();
+            for (int j = 0; j < HLEN && done < outLen; j++, done++) out[outOff + done] ^= h[j];
+        }
+    }
+
+    /** Big-endian, left-padded to k bytes. */
+    private static byte[] toBytes(BigInteger v, int k) {
+        byte[] b = v.toByteArray();
+        if (b.length == k) return b;
+        byte[] out = new byte[k];
+        if (b.length > k) System.arraycopy(b, b.length - k, out, 0, k);   // drop the sign byte
+        else              System.arraycopy(b, 0, out, k - b.length, b.length);
+        return out;
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
     }
 
     public BigInteger[] getPublicKey() {
         return new BigInteger[]{e, n};
     }
 
+    /** {d, n, p, q, dP, dQ, qInv}; the first two are the plain private key. */
     public BigInteger[] getPrivateKey() {
-        return new BigInteger[]{d, n};
+        return new BigInteger[]{d, n, p, q, dP, dQ, qInv};
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,187 @@
+// RSAKeyFactory.java
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <h1>RSAKeyFactory</h1>
+ * <p>Pre-generates RSA key pairs in the background: one bounded queue per key size, kept
+ * full by daemon worker threads, so handing out a key is a queue poll instead of two prime
+ * searches. take() waits for a pooled key; get() generates one on the caller's thread when
+ * the pool is empty.</p>
+ */
+public class RSAKeyFactory implements AutoCloseable {
+
+    /** Queue and counters for one key size. */
+    private static final class Pool {
+        final int bits;
+        final BlockingQueue<RSA> queue;
+        final LongAdder generated = new LongAdder(), genNanos = new LongAdder();
+        final LongAdder hits = new LongAdder(), misses = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        Pool(int bits, int depth) {
+            this.bits = bits;
+            this.queue = new ArrayBlockingQueue<>(depth);
+        }
+
+        RSA generate() {
+            long t = System.nanoTime();
+            RSA rsa = new RSA(bits);
+            t = System.nanoTime() - t;
+            generated.increment();
+            genNanos.add(t);
+            maxNanos.accumulateAndGet(t, Math::max);
+            return rsa;
+        }
+    }
+
+    private final Map<Integer, Pool> pools = new TreeMap<>();
+    private final Thread[] workers;
+
+    /**
+     * Keep depth keys ready for each of bitSizes, with workersPerSize background threads
+     * generating each size.
+     */
+    public RSAKeyFactory(int depth, int workersPerSize, int... bitSizes) {
+        if (depth < 1 || workersPerSize < 1) {
+            throw new IllegalArgumentException("depth and workersPerSize must be positive");
+        }
+        for (int bits : bitSizes) pools.put(bits, new Pool(bits, depth));
+        workers = new Thread[pools.size() * workersPerSize];
+        int i = 0;
+        for (Pool pool : pools.values()) {
+            for (int w = 0; w < workersPerSize; w++, i++) {
+                workers[i] = new Thread(() -> fill(pool), "rsa-keygen-" + pool.bits + "-" + w);
+                workers[i].setDaemon(true);
+                workers[i].setPriority(Thread.MIN_PRIORITY);
+                workers[i].start();
+            }
+        }
+    }
+
+    private static void fill(Pool pool) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                pool.queue.put(pool.generate());   // blocks while the queue is full
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IllegalStateException e) {
+            // closed while generating: the prime search gave up on the interrupt
+            if (!Thread.currentThread().isInterrupted()) throw e;
+        }
+    }
+
+    private Pool pool(int bits) {
+        Pool p = pools.get(bits);
+        if (p == null) throw new IllegalArgumentException("No key pool for " + bits + "-bit keys");
+        return p;
+    }
+
+    /** A pooled key, waiting for one if the pool is empty. */
+    public RSA take(int bits) throws InterruptedException {
+        Pool p = pool(bits);
+        RSA rsa = p.queue.poll();
+        if (rsa != null) {
+            p.hits.increment();
+            return rsa;
+        }
+        p.misses.increment();
+        return p.queue.take();
+    }
+
+    /** A pooled key, waiting at most timeout; null if none arrived. */
+    public RSA take(int bits, long timeout, TimeUnit unit) throws InterruptedException {
+        Pool p = pool(bits);
+        RSA rsa = p.queue.poll();
+        if (rsa != null) {
+            p.hits.increment();
+            return rsa;
+        }
+        p.misses.increment();
+        return p.queue.poll(timeout, unit);
+    }
+
+    /** A pooled key, or one generated now if the pool is empty (or bits has no pool). */
+    public RSA get(int bits) {
+        Pool p = pools.get(bits);
+        if (p == null) return new RSA(bits);
+        RSA rsa = p.queue.poll();
+        if (rsa != null) {
+            p.hits.increment();
+            return rsa;
+        }
+        p.misses.increment();
+        return p.generate();
+    }
+
+    /** Keys ready now for this size. */
+    public int depth(int bits) {
+        return pool(bits).queue.size();
+    }
+
+    /** Keys generated for this size, in the background and inline. */
+    public long generated(int bits) {
+        return pool(bits).generated.sum();
+    }
+
+    /** Requests served straight from the pool, and requests that found it empty. */
+    public long hits(int bits) {
+        return pool(bits).hits.sum();
+    }
+
+    public long misses(int bits) {
+        return pool(bits).misses.sum();
+    }
+
+    /** Mean and worst key-generation time for this size, in milliseconds. */
+    public double meanGenerationMillis(int bits) {
+        Pool p = pool(bits);
+        long n = p.generated.sum();
+        return n == 0 ? 0 : p.genNanos.sum() / 1e6 / n;
+    }
+
+    public double maxGenerationMillis(int bits) {
+        return pool(bits).maxNanos.get() / 1e6;
+    }
+
+    /** One line per key size: depth, hits/misses and generation times. */
+    public String stats() {
+        StringBuilder sb = new StringBuilder();
+        for (Pool p : pools.values()) {
+            sb.append(String.format("rsa-%d depth=%d/%d hits=%d misses=%d generated=%d mean=%.1f ms max=%.1f ms%n",
+                    p.bits, p.queue.size(), p.queue.size() + p.queue.remainingCapacity(),
+                    p.hits.sum(), p.misses.sum(), p.generated.sum(),
+                    meanGenerationMillis(p.bits), maxGenerationMillis(p.bits)));
+        }
+        return sb.toString();
+    }
+
+    /** Stop the workers, abandoning any key in progress; pooled keys already queued can still be taken. */
+    @Override
+    public void close() {
+        for (Thread t : workers) t.interrupt();
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (RSAKeyFactory f = new RSAKeyFactory(4, 1, 512, 1024)) {
+            Thread.sleep(2000);
+            System.out.print(f.stats());
+            for (int i = 0; i < 6; i++) {
+                long t = System.nanoTime();
+                RSA rsa = f.get(1024);
+                System.out.printf("get(1024) #%d in %.2f ms, n=%d bits%n",
+                        i, (System.nanoTime() - t) / 1e6, rsa.getPublicKey()[1].bitLength());
+            }
+            long t = System.nanoTime();
+            f.take(512);
+            System.out.printf("take(512) in %.2f ms%n", (System.nanoTime() - t) / 1e6);
+            System.out.print(f.stats());
+        }
+    }
+}
@@ -1,48 +1,139 @@
 // Rand.java
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
+/**
+ * <h1>Rand</h1>
+ * <p>Random source for the library. Every thread gets its own self-seeded SecureRandom, so
+ * parallel prime searches and concurrent handshakes never wait on a shared generator's lock.
+ * Bulk requests (random bytes, BigIntegers, bit arrays) are served from a per-thread buffer.
+ * The algorithm is SHA1PRNG by default; choose another (e.g. DRBG) with setAlgorithm or the
+ * <code>rand.algorithm</code> system property.</p>
+ */
 public class Rand {
-    private static SecureRandom rand;
+    public static final String DEFAULT_ALGORITHM = "SHA1PRNG";
+    private static final int BUFFER = 512;
 
-    static {
+    private static volatile String algorithm = System.getProperty("rand.algorithm", DEFAULT_ALGORITHM);
+
+    /** One thread's generator and its buffer of unused random bytes. */
+    private static final class Source {
+        final String algorithm;
+        final SecureRandom rng;
+        final byte[] buf = new byte[BUFFER];
+        int pos = BUFFER;
+
+        Source(String algorithm) {
+            this.algorithm = algorithm;
+            this.rng = newInstance(algorithm);
+        }
+
+        void nextBytes(byte[] out) {
+            int off = 0, len = out.length;
+            if (len >= BUFFER) {
+                rng.nextBytes(out);
+                return;
+            }
+            while (len > 0) {
+                if (pos == BUFFER) {
+                    rng.nextBytes(buf);
+                    pos = 0;
+                }
+                int n = Math.min(len, BUFFER - pos);
+                System.arraycopy(buf, pos, out, off, n);
+                // don't leave handed-out bytes behind in the buffer
+                Arrays.fill(buf, pos, pos + n, (byte) 0);
+                pos += n;
+                off += n;
+                len -= n;
+            }
+        }
+    }
+
+    private static final ThreadLocal<Source> local = new ThreadLocal<>();
+
+    private static Source source() {
+        Source s = local.get();
+        String alg = algorithm;
+        if (s == null || !s.algorithm.equals(alg)) {
+            s = new Source(alg);
+            local.set(s);
+        }
+        return s;
+    }
+
+    private static SecureRandom newInstance(String alg) {
         try {
-            rand = SecureRandom.getInstance("SHA1PRNG");
-        } catch (Exception e) {
-            rand = new SecureRandom();
+            return SecureRandom.getInstance(alg);
+        } catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
         }
     }
 
-    /** Get the singleton SecureRandom. */
+    /** Switch every thread to a new algorithm (e.g. "DRBG", "SHA1PRNG") on its next use. */
+    public static void setAlgorithm(String alg) {
+        try {
+            SecureRandom.getInstance(alg);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("SecureRandom algorithm not available: " + alg, e);
+        }
+        algorithm = alg;
+    }
+
+    public static String getAlgorithm() {
+        return algorithm;
+    }
+
+    /** The calling thread's SecureRandom; don't hand it to other threads. */
     public static SecureRandom getRand() {
-        return rand;
+        return source().rng;
+    }
+
+    /** Fill out with random bytes from the thread's buffer. */
+    public static void nextBytes(byte[] out) {
+        source().nextBytes(out);
+    }
+
+    /** Uniform BigInteger in [0, 2^bits), like new BigInteger(bits, rnd). */
+    public static BigInteger randBigInteger(int bits) {
+        if (bits < 0) throw new IllegalArgumentException("bits must be non-negative");
+        byte[] b = new byte[(bits + 7) / 8];
+        source().nextBytes(b);
+        int excess = 8 * b.length - bits;
+        if (b.length > 0) b[0] &= (byte) (0xFF >>> excess);
+        return new BigInteger(1, b);
     }
 
     /** Uniform int in [0, max). */
     public static int randInt(int max) {
-        return rand.nextInt(max);
+        return getRand().nextInt(max);
     }
 
     /** Uniform int in [min, max], inclusive. */
     public static int randInt(int min, int max) {
-        return rand.nextInt(max - min + 1) + min;
+        return getRand().nextInt(max - min + 1) + min;
     }
 
     /** Uniform non-negative long. */
     public static long randLong() {
-        long x = rand.nextLong();
+        long x = getRand().nextLong();
         return (x == Long.MIN_VALUE) ? 0L : Math.abs(x);
     }
 
     /** Gaussian with mean and stddev. */
     public static double randGauss(double mean, double stddev) {
-        return mean + stddev * rand.nextGaussian();
+        return mean + stddev * getRand().nextGaussian();
     }
 
     /** Random bit-array of length len. */
     public static boolean[] randBits(int len) {
+        byte[] b = new byte[(len + 7) / 8];
+        source().nextBytes(b);
         boolean[] bits = new boolean[len];
         for (int i = 0; i < len; i++) {
-            bits[i] = rand.nextBoolean();
+            bits[i] = (b[i >>> 3] & (1 << (i & 7))) != 0;
         }
         return bits;
     }
@@ -0,0 +1,127 @@
+// SmallPrimes.java
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <h1>SmallPrimes</h1>
+ * <p>In-memory table of the first N primes (sieved once, N = 1000 by default) used for
+ * trial division. The primes are grouped so each group's product fits in a long: one
+ * BigInteger remainder per group, then cheap long remainders per prime.</p>
+ */
+public class SmallPrimes {
+    public static final int DEFAULT_COUNT = 1000;
+
+    /** Immutable snapshot of the table so a depth change never races a reader. */
+    static final class Table {
+        final int[] primes;
+        final long[] products;      // product of each group of primes
+        final BigInteger[] bigProducts;
+        final int[] groupEnd;       // primes[groupEnd[g-1] .. groupEnd[g]) belong to group g
+
+        Table(int[] primes) {
+            this.primes = primes;
+            List<Long> prods = new ArrayList<>();
+            List<Integer> ends = new ArrayList<>();
+            long prod = 1;
+            for (int i = 0; i < primes.length; i++) {
+                if (prod > Long.MAX_VALUE / primes[i]) {
+                    prods.add(prod);
+                    ends.add(i);
+                    prod = 1;
+                }
+                prod *= primes[i];
+            }
+            if (primes.length > 0) {
+                prods.add(prod);
+                ends.add(primes.length);
+            }
+            this.products = prods.stream().mapToLong(Long::longValue).toArray();
+            this.groupEnd = ends.stream().mapToInt(Integer::intValue).toArray();
+            this.bigProducts = new BigInteger[products.length];
+            for (int g = 0; g < products.length; g++) bigProducts[g] = BigInteger.valueOf(products[g]);
+        }
+
+        /** True if n has a prime factor in this table other than n itself. */
+        boolean hasSmallFactor(BigInteger n) {
+            long self = n.bitLength() < 32 ? n.longValue() : -1;
+            int start = 0;
+            for (int g = 0; g < products.length; g++) {
+                long r = n.mod(bigProducts[g]).longValue();
+                for (int i = start; i < groupEnd[g]; i++) {
+                    int q = primes[i];
+                    if (r % q == 0 && self != q) return true;
+                }
+                start = groupEnd[g];
+            }
+            return false;
+        }
+
+        /** True if every prime up to sqrt(n) is in this table. */
+        boolean coversSqrt(BigInteger n) {
+            if (primes.length == 0 || n.bitLength() > 62) return false;
+            long largest = primes[primes.length - 1];
+            return n.longValue() < largest * largest;
+        }
+
+        /** n mod each table prime, aligned with primes[]. */
+        int[] residues(BigInteger n) {
+            int[] res = new int[primes.length];
+            int start = 0;
+            for (int g = 0; g < products.length; g++) {
+                long r = n.mod(bigProducts[g]).longValue();
+                for (int i = start; i < groupEnd[g]; i++) res[i] = (int) (r % primes[i]);
+                start = groupEnd[g];
+            }
+            return res;
+        }
+    }
+
+    private static volatile Table table = new Table(sieve(DEFAULT_COUNT));
+
+    /** Change how many small primes trial division uses. */
+    public static void setCount(int count) {
+        if (count < 0) throw new IllegalArgumentException("count must be non-negative");
+        if (count != table.primes.length) table = new Table(sieve(count));
+    }
+
+    public static int getCount() {
+        return table.primes.length;
+    }
+
+    /** The current table (do not modify). */
+    static int[] primes() {
+        return table.primes;
+    }
+
+    static Table snapshot() {
+        return table;
+    }
+
+    /** True if n has a prime factor in the table other than n itself. */
+    public static boolean hasSmallFactor(BigInteger n) {
+        return table.hasSmallFactor(n);
+    }
+
+    /** True if every prime up to sqrt(n) is in the table, so no small factor means n is prime. */
+    public static boolean coversSqrt(BigInteger n) {
+        return table.coversSqrt(n);
+    }
+
+    /** First count primes by a sieve of Eratosthenes. */
+    static int[] sieve(int count) {
+        if (count == 0) return new int[0];
+        // p_n < n (ln n + ln ln n) for n >= 6
+        int limit = count < 6 ? 15 : (int) (count * (Math.log(count) + Math.log(Math.log(count)))) + 1;
+        boolean[] composite = new boolean[limit + 1];
+        int[] out = new int[count];
+        int found = 0;
+        for (int i = 2; i <= limit && found < count; i++) {
+            if (composite[i]) continue;
+            out[found++] = i;
+            for (long j = (long) i * i; j <= limit; j += i) composite[(int) j] = true;
+        }
+        return Arrays.copyOf(out, found);
+    }
+}
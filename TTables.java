@@ -0,0 +1,44 @@
+// TTables.java
+public class TTables {
+    // encryption tables: SubBytes + ShiftRows + MixColumns folded per input byte
+    static final int[] Te0 = new int[256];
+    static final int[] Te1 = new int[256];
+    static final int[] Te2 = new int[256];
+    static final int[] Te3 = new int[256];
+    // decryption tables: InvSubBytes + InvShiftRows + InvMixColumns folded per input byte
+    static final int[] Td0 = new int[256];
+    static final int[] Td1 = new int[256];
+    static final int[] Td2 = new int[256];
+    static final int[] Td3 = new int[256];
+    // flat S-boxes for the final round (no MixColumns)
+    static final int[] S    = new int[256];
+    static final int[] invS = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int s  = SBox.sbox(i);
+            int si = SBox.invSbox(i);
+            S[i]    = s;
+            invS[i] = si;
+
+            // column (2s, s, s, 3s), row 0 in the high byte like MixCols.mix
+            int te = (MixCols.mc2[s]<<24) | (s<<16) | (s<<8) | MixCols.mc3[s];
+            Te0[i] = te;
+            Te1[i] = ror8(te);
+            Te2[i] = ror8(Te1[i]);
+            Te3[i] = ror8(Te2[i]);
+
+            // column (14s, 9s, 13s, 11s) like MixCols.invMix
+            int td = (MixCols.mc14[si]<<24) | (MixCols.mc9[si]<<16)
+                    | (MixCols.mc13[si]<<8) |  MixCols.mc11[si];
+            Td0[i] = td;
+            Td1[i] = ror8(td);
+            Td2[i] = ror8(Td1[i]);
+            Td3[i] = ror8(Td2[i]);
+        }
+    }
+
+    private static int ror8(int w) {
+        return (w>>>8) | (w<<24);
+    }
+}
@@ -20,5 +20,155 @@ public class TestAES {
         System.out.println("Ciphertext: " + ctCBC);
         String ptCBC = aes.decrypt(ctCBC, true).trim();
         System.out.println("Recovered : " + ptCBC);
+
+        // --- CTR mode (parallel vs sequential) ---
+        System.out.println("\n=== CTR ===");
+        AES fast = new AES(key);
+        byte[] nonce = {1, 2, 3, 4, 5, 6, 7, 8};
+        byte[] big = new byte[1 << 20];
+        new java.util.Random(4380).nextBytes(big);
+        byte[] ctPar = fast.ctr(big, nonce, 0);
+        byte[] ctSeq = new byte[big.length];
+        fast.ctrSequential(big, 0, ctSeq, 0, big.length, AES.counterBlock(nonce, 0));
+        System.out.println("Parallel == sequential: " + java.util.Arrays.equals(ctPar, ctSeq));
+        System.out.println("Round trip            : " + java.util.Arrays.equals(big, fast.ctr(ctPar, nonce, 0)));
+
+        // --- CBC decryption (parallel vs sequential) ---
+        System.out.println("\n=== CBC parallel decrypt ===");
+        byte[] ctBig = fast.encrypt(big, true);
+        byte[] ptSeq = new byte[ctBig.length];
+        fast.decryptCBCSequential(ctBig, 0, ptSeq, 0, ctBig.length, new byte[16]);
+        System.out.println("Parallel == sequential: " + java.util.Arrays.equals(fast.decrypt(ctBig, true), ptSeq));
+        String multi = "Grüße, 世界! ".repeat(8);
+        System.out.println("Multi-byte round trip : " + multi.equals(fast.decrypt(fast.encrypt(multi, true), true).replace("\0", "")));
+
+        // --- key schedule cache ---
+        System.out.println("\n=== Key cache ===");
+        KeyCache cache = new KeyCache(2);
+        for (String k : new String[]{key, key, "YELLOW SUBMARINE", key, "0123456789abcdef", key}) {
+            cache.aes(k);
+        }
+        System.out.printf("hits=%d misses=%d evictions=%d%n", cache.hits(), cache.misses(), cache.evictions());
+        System.out.println("Cached == fresh       : " + cache.aes(key).encrypt(plaintext, true).equals(ctCBC));
+
+        // --- Bitsliced engine ---
+        System.out.println("\n=== Bitsliced engine ===");
+        AES ct = new AES(key.getBytes(java.nio.charset.StandardCharsets.UTF_8), AES.Engine.BITSLICED);
+        System.out.println("ECB == table          : " + java.util.Arrays.equals(ct.encrypt(big, false), fast.encrypt(big, false)));
+        System.out.println("CBC decrypt == table  : " + java.util.Arrays.equals(ct.decrypt(ctBig, true), big));
+        System.out.println("CTR == table          : " + java.util.Arrays.equals(ct.ctr(big, nonce, 0), ctPar));
+
+        // --- Trace sinks ---
+        System.out.println("\n=== Trace sinks ===");
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        AESTrace.Collector collector = new AESTrace.Collector();
+        new AES(key, AESTrace.to(new java.io.PrintStream(bytes, true))).encrypt(plaintext, false);
+        String traced = new AES(key, collector).encrypt(plaintext, false);
+        System.out.println("Steps traced          : " + collector.steps());
+        System.out.println("Collector == stream   : " + collector.toString().equals(bytes.toString()));
+        System.out.println("Traced == untraced    : " + traced.equals(ctECB));
+        java.nio.file.Path reference = java.nio.file.Paths.get("AES Debug.txt");
+        if (java.nio.file.Files.exists(reference)) {
+            String nl = System.lineSeparator();
+            String schedule = AESTrace.Reference.keySchedule(KeySchedule.expand(key.getBytes(java.nio.charset.StandardCharsets.UTF_8)));
+            AESTrace.Reference ref = new AESTrace.Reference();
+            AES refAES = new AES(key, ref);
+            String ctRef = refAES.encrypt(plaintext, false);
+            String encTrace = ref.toString();
+            ref.clear();
+            String ptRef = refAES.decrypt(ctRef, false);
+            String doc = "Original: " + plaintext + nl + "Key: " + key + nl + nl + schedule + encTrace
+                    + "Encrypted: " + ctRef + nl + nl + schedule + ref + "Decrypted: " + ptRef + nl;
+            try {
+                String expect = new String(java.nio.file.Files.readAllBytes(reference), java.nio.charset.StandardCharsets.UTF_8);
+                System.out.println("Matches AES Debug.txt : " + doc.replace("\r\n", "\n").equals(expect.replace("\r\n", "\n")));
+            } catch (java.io.IOException e) {
+                System.out.println("Matches AES Debug.txt : unreadable (" + e.getMessage() + ")");
+            }
+        }
+
+        // --- Batch CBC ---
+        System.out.println("\n=== Batch CBC ===");
+        java.util.List<AESBatch.Job> jobs = new java.util.ArrayList<>();
+        java.util.List<byte[]> expected = new java.util.ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            KeySchedule ks = KeySchedule.expand(java.util.Arrays.copyOf(big, 16 + 8 * (i % 3)));
+            byte[] msg = java.util.Arrays.copyOfRange(big, 0, 100 * i + 7);
+            jobs.add(new AESBatch.Job(ks, new byte[16], msg, new byte[AESBatch.paddedLength(msg.length)]));
+            expected.add(new AES(ks).encrypt(msg, true));
+        }
+        AESBatch.encryptCBC(jobs);
+        boolean same = true;
+        for (int i = 0; i < jobs.size(); i++) same &= java.util.Arrays.equals(jobs.get(i).out, expected.get(i));
+        System.out.println("Batch == encrypt()    : " + same);
+        byte[] sliced = new byte[AESBatch.paddedLength(1000)];
+        AESBatch.encryptCBC(java.util.List.of(new AESBatch.Job(fast.getSchedule(), new byte[16], big, 5, 1000, sliced, 0)), AES.Engine.BITSLICED);
+        System.out.println("Bitsliced batch       : " + java.util.Arrays.equals(sliced,
+                fast.encrypt(java.util.Arrays.copyOfRange(big, 5, 1005), true)));
+
+        // --- GCM (SP 800-38D test case 4) ---
+        System.out.println("\n=== GCM ===");
+        java.util.HexFormat hex = java.util.HexFormat.of();
+        AESGCM gcm = new AESGCM(hex.parseHex("feffe9928665731c6d6a8f9467308308"));
+        byte[] gcmIv = hex.parseHex("cafebabefacedbaddecaf888");
+        byte[] gcmAad = hex.parseHex("feedfacedeadbeeffeedfacedeadbeefabaddad2");
+        byte[] sealed = gcm.encrypt(gcmIv, gcmAad, hex.parseHex("d9313225f88406e5a55909c5aff5269a"
+                + "86a7a9531534f7da2e4c303d8a318a721c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b39"));
+        System.out.println("Tag                   : " + hex.formatHex(sealed, sealed.length - 16, sealed.length));
+        System.out.println("Tag == expected       : " + hex.formatHex(sealed, sealed.length - 16, sealed.length)
+                .equals("5bc94fbc3221a5db94fae95ae7121a47"));
+        AESGCM.Stream enc = new AESGCM(fast).encryptor(gcmIv);
+        byte[] streamed = new byte[big.length];
+        for (int off = 0; off < big.length; off += 100_000) {
+            enc.update(big, off, Math.min(100_000, big.length - off), streamed, off);
+        }
+        byte[] bigTag = enc.finish();
+        try {
+            AESGCM.Stream dec = new AESGCM(fast).decryptor(gcmIv);
+            dec.update(streamed, 0, streamed.length, streamed, 0);
+            dec.verify(bigTag);
+            System.out.println("Streaming round trip  : " + java.util.Arrays.equals(streamed, big));
+            sealed[0] ^= 1;
+            gcm.decrypt(gcmIv, gcmAad, sealed);
+            System.out.println("Forgery rejected      : false");
+        } catch (javax.crypto.AEADBadTagException e) {
+            System.out.println("Forgery rejected      : true");
+        }
+
+        // --- XTS channel (IEEE 1619 vector 2, then write/read/truncate/reopen) ---
+        System.out.println("\n=== XTS channel ===");
+        try {
+            java.nio.file.Path file = java.nio.file.Files.createTempFile("testaes", ".xts");
+            byte[] xtsKey = new byte[32];
+            java.util.Arrays.fill(xtsKey, 0, 16, (byte) 0x11);
+            java.util.Arrays.fill(xtsKey, 16, 32, (byte) 0x22);
+            byte[] xtsIn = new byte[32], xtsOut = new byte[32];
+            java.util.Arrays.fill(xtsIn, (byte) 0x44);
+            try (AESChannel c = AESChannel.open(file, xtsKey, java.nio.file.StandardOpenOption.WRITE)) {
+                c.xts(xtsIn, xtsOut, 32, 0x3333333333L, true);
+            }
+            System.out.println("Vector 2 == expected  : " + hex.formatHex(xtsOut)
+                    .equals("c454185e6a16936e39334038acef838bfb186fff7480adc4289382ecd6d394f0"));
+
+            byte[] model = java.util.Arrays.copyOf(big, 10_000);
+            java.util.Arrays.fill(model, 3_000, 3_500, (byte) 0);  // gap left by the write past the end
+            try (AESChannel c = AESChannel.open(file, xtsKey, 512, 2, java.nio.file.StandardOpenOption.WRITE,
+                    java.nio.file.StandardOpenOption.TRUNCATE_EXISTING)) {
+                c.write(java.nio.ByteBuffer.wrap(big, 0, 3_000));
+                c.position(3_500).write(java.nio.ByteBuffer.wrap(big, 3_500, 8_000));
+                c.truncate(10_000);
+            }
+            byte[] back;
+            try (AESChannel c = AESChannel.open(file, xtsKey)) {
+                java.nio.ByteBuffer dst = java.nio.ByteBuffer.wrap(back = new byte[(int) c.size()]);
+                while (dst.hasRemaining()) {
+                    if (c.read(dst) < 0) break;
+                }
+            }
+            System.out.println("Reopen round trip     : " + java.util.Arrays.equals(back, model));
+            java.nio.file.Files.delete(file);
+        } catch (java.io.IOException e) {
+            System.out.println("XTS channel           : failed (" + e + ")");
+        }
     }
 }
@@ -0,0 +1,535 @@
+// Bench.java
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * <h1>Bench</h1>
+ * <p>Offline benchmark suite for AES, RSA, DHE, the Crypto helpers and Rand. Every case gets
+ * warmup iterations followed by measured iterations; inputs come from a fixed seed so runs
+ * on the same machine and JVM are comparable. Run with <code>gradle bench</code>.</p>
+ *
+ * <pre>
+ *   --filter s      only run cases whose name contains s (repeatable)
+ *   --warmup n      warmup iterations per case (default 3)
+ *   --iterations n  measured iterations per case (default 5)
+ *   --time ms       length of one timed iteration (default 500)
+ *   --csv file      also write the results as CSV
+ *   --list          print the case names and exit
+ * </pre>
+ */
+public class Bench {
+    static final long SEED = 4380;
+
+    static volatile Object blackhole;
+
+    /** One benchmarked operation; the result is consumed so the JIT can't drop it. */
+    interface Op {
+        Object run() throws Exception;
+    }
+
+    /** A named case; setup runs only if the case is selected. */
+    static final class Case {
+        final String name;
+        final long bytes;           // payload per op for throughput, 0 if not applicable
+        final boolean singleShot;   // time individual ops instead of a fixed time budget
+        final Supplier<Op> setup;
+
+        Case(String name, long bytes, boolean singleShot, Supplier<Op> setup) {
+            this.name = name;
+            this.bytes = bytes;
+            this.singleShot = singleShot;
+            this.setup = setup;
+        }
+    }
+
+    /** Per-case result: nanoseconds per op for each measured iteration. */
+    static final class Result {
+        final Case c;
+        final double[] nsPerOp;
+
+        Result(Case c, double[] nsPerOp) {
+            this.c = c;
+            this.nsPerOp = nsPerOp;
+        }
+
+        double mean() {
+            return Arrays.stream(nsPerOp).average().orElse(0);
+        }
+
+        double stddev() {
+            double m = mean(), s = 0;
+            for (double v : nsPerOp) s += (v - m) * (v - m);
+            return nsPerOp.length > 1 ? Math.sqrt(s / (nsPerOp.length - 1)) : 0;
+        }
+    }
+
+    private final List<Case> cases = new ArrayList<>();
+    private int warmup = 3, iterations = 5;
+    private long timeNs = 500_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        Bench b = new Bench();
+        List<String> filters = new ArrayList<>();
+        String csv = null;
+        boolean list = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filter":     filters.add(args[++i]); break;
+                case "--warmup":     b.warmup = Integer.parseInt(args[++i]); break;
+                case "--iterations": b.iterations = Integer.parseInt(args[++i]); break;
+                case "--time":       b.timeNs = Long.parseLong(args[++i]) * 1_000_000L; break;
+                case "--csv":        csv = args[++i]; break;
+                case "--list":       list = true; break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(1);
+            }
+        }
+        b.register();
+        List<Case> selected = new ArrayList<>();
+        for (Case c : b.cases) {
+            if (filters.isEmpty() || filters.stream().anyMatch(c.name::contains)) selected.add(c);
+        }
+        if (list) {
+            selected.forEach(c -> System.out.println(c.name));
+            return;
+        }
+        System.out.printf("# %s %s, %d cpus, warmup=%d iterations=%d time=%dms%n",
+                System.getProperty("java.vm.name"), System.getProperty("java.version"),
+                Runtime.getRuntime().availableProcessors(), b.warmup, b.iterations, b.timeNs / 1_000_000);
+        List<Result> results = new ArrayList<>();
+        for (Case c : selected) {
+            Result r = b.run(c);
+            results.add(r);
+            print(r);
+        }
+        if (csv != null) writeCsv(csv, results);
+    }
+
+    /** Warm up, then measure one case. */
+    Result run(Case c) throws Exception {
+        Op op = c.setup.get();
+        double[] ns = new double[iterations];
+        for (int i = 0; i < warmup + iterations; i++) {
+            double v = c.singleShot ? once(op) : timed(op);
+            if (i >= warmup) ns[i - warmup] = v;
+        }
+        return new Result(c, ns);
+    }
+
+    private double timed(Op op) throws Exception {
+        long ops = 0, start = System.nanoTime(), deadline = start + timeNs, now;
+        do {
+            blackhole = op.run();
+            ops++;
+        } while ((now = System.nanoTime()) < deadline);
+        return (double)(now - start) / ops;
+    }
+
+    private static double once(Op op) throws Exception {
+        long start = System.nanoTime();
+        blackhole = op.run();
+        return System.nanoTime() - start;
+    }
+
+    private static void print(Result r) {
+        double mean = r.mean();
+        String tput = r.c.bytes > 0
+                ? String.format("%10.1f MB/s", r.c.bytes / mean * 1e9 / (1 << 20)) : "";
+        System.out.printf("%-36s %16s  +-%5.1f%% %s%n", r.c.name, human(mean),
+                mean > 0 ? 100 * r.stddev() / mean : 0, tput);
+    }
+
+    private static String human(double ns) {
+        if (ns >= 1e9) return String.format("%.3f s/op", ns / 1e9);
+        if (ns >= 1e6) return String.format("%.3f ms/op", ns / 1e6);
+        if (ns >= 1e3) return String.format("%.3f us/op", ns / 1e3);
+        return String.format("%.1f ns/op", ns);
+    }
+
+    private static void writeCsv(String file, List<Result> results) throws IOException {
+        try (PrintWriter w = new PrintWriter(Files.newBufferedWriter(Paths.get(file)))) {
+            w.println("case,mean_ns,stddev_ns,iterations,bytes");
+            for (Result r : results) {
+                w.printf("%s,%.1f,%.1f,%d,%d%n", r.c.name, r.mean(), r.stddev(), r.nsPerOp.length, r.c.bytes);
+            }
+        }
+    }
+
+    private void add(String name, long bytes, Supplier<Op> setup) {
+        cases.add(new Case(name, bytes, false, setup));
+    }
+
+    private void addSingleShot(String name, Supplier<Op> setup) {
+        cases.add(new Case(name, 0, true, setup));
+    }
+
+    // --- cases ---
+
+    void register() {
+        registerAES();
+        registerCrypto();
+        registerRSA();
+        registerDHE();
+        registerRand();
+    }
+
+    private static byte[] randomBytes(int n, long seed) {
+        byte[] b = new byte[n];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    /** ASCII text so the String API round-trips byte-for-byte. */
+    private static String randomText(int n, long seed) {
+        Random r = new Random(seed);
+        char[] c = new char[n];
+        for (int i = 0; i < n; i++) c[i] = (char)(' ' + r.nextInt(95));
+        return new String(c);
+    }
+
+    private void registerAES() {
+        int[] keyBits = {128, 192, 256};
+        int[] sizes = {16, 1 << 10, 64 << 10, 4 << 20};
+        for (int bits : keyBits) {
+            byte[] key = randomBytes(bits / 8, SEED + bits);
+            add("aes.keyExpansion." + bits, 0, () -> () -> KeySchedule.expand(key));
+        }
+        for (String mode : new String[]{"ecb", "cbc"}) {
+            boolean cbc = mode.equals("cbc");
+            for (int bits : keyBits) {
+                String keyStr = randomText(bits / 8, SEED + bits);
+                for (int size : sizes) {
+                    String tag = mode + "." + bits + "." + size(size);
+                    add("aes.encrypt." + tag, size, () -> {
+                        AES aes = new AES(keyStr);
+                        String pt = randomText(size, SEED + size);
+                        return () -> aes.encrypt(pt, cbc);
+                    });
+                    add("aes.decrypt." + tag, size, () -> {
+                        AES aes = new AES(keyStr);
+                        String ct = aes.encrypt(randomText(size, SEED + size), cbc);
+                        return () -> aes.decrypt(ct, cbc);
+                    });
+                    add("aes.encryptBytes." + tag, size, () -> {
+                        AES aes = new AES(keyStr);
+                        byte[] pt = randomBytes(size, SEED + size);
+                        return () -> aes.encrypt(pt, cbc);
+                    });
+                    add("aes.decryptBytes." + tag, size, () -> {
+                        AES aes = new AES(keyStr);
+                        byte[] ct = aes.encrypt(randomBytes(size, SEED + size), cbc);
+                        return () -> aes.decrypt(ct, cbc);
+                    });
+                }
+            }
+        }
+        // engines on the byte[] range API: T-tables vs bitsliced (128-bit key)
+        byte[] key = randomBytes(16, SEED + 128);
+        byte[] nonce = randomBytes(8, SEED);
+        for (AES.Engine engine : AES.Engine.values()) {
+            String e = engine.name().toLowerCase();
+            for (int size : new int[]{1 << 10, 64 << 10, 4 << 20}) {
+                String tag = e + "." + size(size);
+                add("aes.engine.ecbEncrypt." + tag, size, () -> {
+                    AES aes = new AES(key, engine);
+                    byte[] buf = randomBytes(size, SEED + size);
+                    return () -> {
+                        aes.encryptECB(buf, 0, buf, 0, size);
+                        return buf;
+                    };
+                });
+                add("aes.engine.ctr." + tag, size, () -> {
+                    AES aes = new AES(key, engine);
+                    byte[] pt = randomBytes(size, SEED + size), out = new byte[size];
+                    byte[] cb = AES.counterBlock(nonce, 0);
+                    return () -> {
+                        aes.ctr(pt, 0, out, 0, size, cb);
+                        return out;
+                    };
+                });
+                add("aes.engine.cbcDecrypt." + tag, size, () -> {
+                    AES aes = new AES(key, engine);
+                    byte[] ct = aes.encrypt(randomBytes(size, SEED + size), true), out = new byte[size];
+                    return () -> {
+                        aes.decryptCBC(ct, 0, out, 0, size, new byte[16]);
+                        return out;
+                    };
+                });
+            }
+        }
+        // many small CBC messages, each under its own key: encrypt() per message vs AESBatch
+        for (int msgSize : new int[]{256, 1 << 10, 4 << 10}) {
+            int count = 64;
+            String tag = count + "x" + size(msgSize);
+            Supplier<KeySchedule[]> keys = memo(() -> {
+                KeySchedule[] ks = new KeySchedule[count];
+                for (int i = 0; i < count; i++) ks[i] = KeySchedule.expand(randomBytes(16, SEED + i));
+                return ks;
+            });
+            add("aes.batch.cbc.loop." + tag, (long) count * msgSize, () -> {
+                KeySchedule[] ks = keys.get();
+                byte[] msg = randomBytes(msgSize, SEED);
+                return () -> {
+                    byte[] last = null;
+                    for (KeySchedule k : ks) last = new AES(k).encrypt(msg, true);
+                    return last;
+                };
+            });
+            add("aes.batch.cbc.encryptCBC." + tag, (long) count * msgSize, () -> {
+                KeySchedule[] ks = keys.get();
+                byte[] msg = randomBytes(msgSize, SEED), iv = new byte[16];
+                List<AESBatch.Job> jobs = new ArrayList<>();
+                for (KeySchedule k : ks) jobs.add(new AESBatch.Job(k, iv, msg, new byte[msgSize]));
+                return () -> {
+                    AESBatch.encryptCBC(jobs);
+                    return jobs;
+                };
+            });
+        }
+        // GCM: counter mode plus 4-bit-table GHASH, against the JDK's provider for reference
+        byte[] iv = randomBytes(AESGCM.IV_LENGTH, SEED);
+        byte[] aad = randomBytes(20, SEED);
+        for (int size : new int[]{1 << 10, 64 << 10, 4 << 20}) {
+            add("aes.gcm.encrypt." + size(size), size, () -> {
+                AESGCM gcm = new AESGCM(key);
+                byte[] pt = randomBytes(size, SEED + size);
+                return () -> gcm.encrypt(iv, aad, pt);
+            });
+            add("aes.gcm.decrypt." + size(size), size, () -> {
+                AESGCM gcm = new AESGCM(key);
+                byte[] ct = gcm.encrypt(iv, aad, randomBytes(size, SEED + size));
+                return () -> gcm.decrypt(iv, aad, ct);
+            });
+            add("aes.gcm.jce." + size(size), size, () -> {
+                Cipher c = newCipher("AES/GCM/NoPadding");
+                byte[] pt = randomBytes(size, SEED + size);
+                SecretKeySpec k = new SecretKeySpec(key, "AES");
+                return () -> {
+                    // the provider refuses to reuse a key and IV for encryption, so vary the IV
+                    iv[0]++;
+                    c.init(Cipher.ENCRYPT_MODE, k, new GCMParameterSpec(128, iv));
+                    c.updateAAD(aad);
+                    return c.doFinal(pt);
+                };
+            });
+        }
+    }
+
+    private static String size(int n) {
+        if (n >= 1 << 20) return (n >> 20) + "MiB";
+        if (n >= 1 << 10) return (n >> 10) + "KiB";
+        return n + "B";
+    }
+
+    private void registerCrypto() {
+        for (int bits : new int[]{1024, 2048, 3072}) {
+            Random r = new Random(SEED + bits);
+            BigInteger m = new BigInteger(bits, r).setBit(bits - 1).setBit(0);
+            BigInteger g = new BigInteger(bits, r).mod(m);
+            BigInteger e = new BigInteger(bits, r);
+            add("crypto.fastMod." + bits, 0, () -> () -> Crypto.fastMod(g, e, m));
+            add("crypto.fastModPlain." + bits, 0, () -> () -> Crypto.fastModPlain(g, e, m));
+            add("crypto.montgomeryReused." + bits, 0, () -> {
+                Montgomery ctx = new Montgomery(m);
+                return () -> ctx.modPow(g, e);
+            });
+            add("crypto.modPow." + bits, 0, () -> () -> g.modPow(e, m));
+        }
+        for (int bits : new int[]{512, 1024, 2048}) {
+            BigInteger p = BigInteger.probablePrime(bits, new Random(SEED + bits));
+            add("crypto.checkPrime." + bits, 0, () -> () -> Crypto.checkPrime(p, 10));
+        }
+        for (int bits : new int[]{512, 1024}) {
+            addSingleShot("crypto.getPrime." + bits, () -> () -> Crypto.getPrime(bits - 1, bits, 10));
+        }
+    }
+
+    private void registerRSA() {
+        for (int bits : new int[]{1024, 2048, 3072}) {
+            addSingleShot("rsa.keygen." + bits, () -> () -> new RSA(bits));
+            Supplier<RSA> key = memo(() -> new RSA(bits));
+            String msg = randomText(64, SEED);
+            add("rsa.encrypt." + bits, 0, () -> {
+                RSA rsa = key.get();
+                BigInteger[] pub = rsa.getPublicKey();
+                return () -> rsa.encrypt(msg, pub[0], pub[1]);
+            });
+            add("rsa.decrypt." + bits, 0, () -> {
+                RSA rsa = key.get();
+                BigInteger[] pub = rsa.getPublicKey();
+                String ct = rsa.encrypt(msg, pub[0], pub[1]);
+                return () -> rsa.decrypt(ct);
+            });
+            add("rsa.sign." + bits, 0, () -> {
+                RSA rsa = key.get();
+                String hex = new BigInteger(1, msg.getBytes(StandardCharsets.UTF_8)).toString(16);
+                return () -> rsa.sign(hex);
+            });
+        }
+        // envelopes: OAEP key wrapping for many recipients, and sealing a payload
+        Supplier<List<BigInteger[]>> recipients = memo(() -> {
+            List<BigInteger[]> keys = new ArrayList<>();
+            for (int i = 0; i < 16; i++) keys.add(new RSA(2048).getPublicKey());
+            return keys;
+        });
+        add("rsa.envelope.wrapAll.16x2048", 0, () -> {
+            List<BigInteger[]> keys = recipients.get();
+            byte[] sessionKey = randomBytes(Envelope.KEY_BYTES, SEED);
+            return () -> Envelope.wrapAll(sessionKey, keys);
+        });
+        for (int size : new int[]{64 << 10, 4 << 20}) {
+            add("rsa.envelope.seal.16x2048." + size(size), size, () -> {
+                List<BigInteger[]> keys = recipients.get();
+                byte[] payload = randomBytes(size, SEED + size);
+                return () -> {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(size + (64 << 10));
+                    Envelope.seal(new ByteArrayInputStream(payload), out, keys);
+                    return out;
+                };
+            });
+        }
+        // signing large documents: flat SHA-256 vs a parallel Merkle tree over 1 MiB chunks
+        int doc = 16 << 20;
+        Supplier<byte[]> document = memo(() -> randomBytes(doc, SEED + doc));
+        add("rsa.merkle.sha256.flat." + size(doc), doc, () -> {
+            byte[] d = document.get();
+            return () -> RSA.sha256().digest(d);
+        });
+        add("rsa.merkle.tree.stream." + size(doc), doc, () -> {
+            byte[] d = document.get();
+            return () -> MerkleTree.of(new ByteArrayInputStream(d), MerkleTree.DEFAULT_CHUNK).root();
+        });
+    }
+
+    private void registerDHE() {
+        int pBits = 512;
+        Supplier<DHE> generated = memo(() -> new DHE(16, pBits));
+        addAgreement("dhe.agreement." + pBits, generated, pBits - 1);
+        for (int bits : new int[]{2048, 3072}) {
+            addAgreement("dhe.agreement.modp" + bits, () -> DHE.modp(bits), bits - 1);
+            // public-value generation, square-and-multiply vs fixed-base table
+            Supplier<DHE> fixed = memo(() -> {
+                DHE d = DHE.modp(bits);
+                d.enableFixedBase(FIXED_BASE_BUDGET);
+                return d;
+            });
+            addExponent("dhe.getExponent.modp" + bits, () -> DHE.modp(bits), bits - 1);
+            addExponent("dhe.getExponentFixedBase.modp" + bits, fixed, bits - 1);
+        }
+    }
+
+    private static final long FIXED_BASE_BUDGET = 16L << 20;
+
+    private void addExponent(String name, Supplier<DHE> group, int privBits) {
+        add(name, 0, () -> {
+            DHE dhe = group.get();
+            BigInteger a = dhe.getBase(privBits);
+            return () -> dhe.getExponent(a);
+        });
+    }
+
+    /** Both sides of one exchange: two private values, two public values, two shared keys. */
+    private void addAgreement(String name, Supplier<DHE> group, int privBits) {
+        add(name, 0, () -> {
+            DHE dhe = group.get();
+            return () -> {
+                BigInteger a = dhe.getBase(privBits), b = dhe.getBase(privBits);
+                BigInteger A = dhe.getExponent(a), B = dhe.getExponent(b);
+                return dhe.getKey(a, B).equals(dhe.getKey(b, A));
+            };
+        });
+    }
+
+    /**
+     * Contention: T threads each draw RAND_DRAWS 256-bit values at once, from one shared
+     * SecureRandom (the old Rand singleton) or from Rand's per-thread generators. One op is
+     * the whole batch.
+     */
+    private void registerRand() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int[] threadCounts = {1, Math.max(4, cpus)};
+        for (int threads : threadCounts) {
+            long bytes = (long) threads * RAND_DRAWS * 32;
+            for (String alg : new String[]{"SHA1PRNG", "DRBG"}) {
+                add("rand.contention.shared" + alg + "." + threads, bytes, () -> {
+                    SecureRandom shared = newSecureRandom(alg);
+                    return batch(threads, () -> new BigInteger(256, shared));
+                });
+            }
+            add("rand.contention.threadLocal." + threads, bytes,
+                    () -> batch(threads, () -> Rand.randBigInteger(256)));
+        }
+    }
+
+    private static final int RAND_DRAWS = 1000;
+
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static SecureRandom newSecureRandom(String alg) {
+        try {
+            return SecureRandom.getInstance(alg);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Op that runs RAND_DRAWS draws on each of threads pool threads and waits for all of them. */
+    private static Op batch(int threads, Supplier<Object> draw) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "bench-rand");
+            t.setDaemon(true);
+            return t;
+        });
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            tasks.add(() -> {
+                Object last = null;
+                for (int j = 0; j < RAND_DRAWS; j++) last = draw.get();
+                return last;
+            });
+        }
+        return () -> {
+            Object last = null;
+            for (Future<Object> f : pool.invokeAll(tasks)) last = f.get();
+            return last;
+        };
+    }
+
+    /** Lazily build a shared fixture once (keys, groups) for the cases that use it. */
+    private static <T> Supplier<T> memo(Supplier<T> s) {
+        Object[] box = new Object[1];
+        return () -> {
+            if (box[0] == null) box[0] = s.get();
+            @SuppressWarnings("unchecked") T t = (T) box[0];
+            return t;
+        };
+    }
+}